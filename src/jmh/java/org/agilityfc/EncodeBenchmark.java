@@ -0,0 +1,57 @@
+package org.agilityfc;
+
+import org.agilityfc.util.ImageEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Screenshot encoding for every format and effort, at typical interface
+ * sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EncodeBenchmark
+{
+    @Param({"TRADE", "PRICE_CHECK", "LOOTING_BAG"})
+    private SyntheticImages.Size size;
+
+    @Param({"PNG", "INDEXED_PNG", "QOI"})
+    private ScreenshotFormat format;
+
+    @Param({"FASTEST", "BALANCED", "SMALLEST"})
+    private ScreenshotEncoding encoding;
+
+    private BufferedImage img;
+    private ImageEncoder encoder;
+
+    @Setup
+    public void setUp()
+    {
+        img = SyntheticImages.create(size);
+        encoder = format.encoder(encoding);
+    }
+
+    @Benchmark
+    public void encode() throws IOException
+    {
+        encoder.write(img, OutputStream.nullOutputStream());
+    }
+}
@@ -0,0 +1,47 @@
+package org.agilityfc;
+
+import org.agilityfc.util.ImageScaler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scaling screenshots down to the panel's preview.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PanelBenchmark
+{
+    @Param({"TRADE", "PRICE_CHECK", "LOOTING_BAG"})
+    private SyntheticImages.Size size;
+
+    private BufferedImage img;
+    private final ImageScaler scaler = new ImageScaler();
+
+    @Setup
+    public void setUp()
+    {
+        img = SyntheticImages.create(size);
+    }
+
+    @Benchmark
+    public BufferedImage fitImage()
+    {
+        return scaler.fit(img, Thumbnails.SIZE);
+    }
+}
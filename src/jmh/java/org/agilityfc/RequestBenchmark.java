@@ -0,0 +1,82 @@
+package org.agilityfc;
+
+import okhttp3.Request;
+import okio.Buffer;
+import org.agilityfc.util.ImageEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building and writing out the request bodies of single and batched
+ * donations, with the default screenshot settings.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RequestBenchmark
+{
+    private static final String URL = "http://localhost:8080/";
+
+    @Param({"TRADE", "LOOTING_BAG"})
+    private SyntheticImages.Size size;
+
+    private DonationInfo di;
+    private List<DonationInfo> batch;
+    private ImageEncoder encoder;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() throws IOException
+    {
+        di = new DonationInfo("Zezima", "Agility FC", 1_234_567,
+            SyntheticImages.create(size));
+        batch = Collections.nCopies(10, di);
+        encoder = ScreenshotFormat.INDEXED_PNG.encoder(ScreenshotEncoding.BALANCED);
+        encoded = encoder.encode(di.getScreenshot());
+    }
+
+    private static long write(Request r) throws IOException
+    {
+        Buffer sink = new Buffer();
+        r.body().writeTo(sink);
+
+        long n = sink.size();
+        sink.clear();
+        return n;
+    }
+
+    @Benchmark
+    public long single() throws IOException
+    {
+        return write(DonationRequest.builder(di, encoder).url(URL).build());
+    }
+
+    @Benchmark
+    public long batchOfTen() throws IOException
+    {
+        return write(DonationRequest.batch(batch, encoder, URL));
+    }
+
+    @Benchmark
+    public String hash()
+    {
+        return DonationRequest.hash(encoded);
+    }
+}
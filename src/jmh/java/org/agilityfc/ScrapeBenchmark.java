@@ -0,0 +1,54 @@
+package org.agilityfc;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+
+/**
+ * Matching and parsing the text scraped from the trade screen.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScrapeBenchmark
+{
+    private static final String TITLE = "Trading with: Zezima";
+    private static final String VALUE = "Value: 1,234,567 coins";
+
+    private BufferedImage img;
+
+    @Setup
+    public void setUp()
+    {
+        img = SyntheticImages.create(SyntheticImages.Size.TRADE);
+    }
+
+    @Benchmark
+    public DonationInfo parse()
+    {
+        DonationScraper.Spec spec = DonationScraper.TRADE_MAIN;
+
+        Matcher from = spec.getOpponentPat().matcher(TITLE);
+        Matcher value = spec.getValuePat().matcher(VALUE);
+        if (!from.matches() || !value.matches()) throw new IllegalStateException();
+
+        return new DonationScraper.Scrape(from.group(1), "Agility FC",
+            value.group(1), null, new Rectangle(img.getWidth(), img.getHeight()))
+            .toDonationInfo(img);
+    }
+}
@@ -0,0 +1,56 @@
+package org.agilityfc.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copying an interface's region out of a frame, in fixed mode and in a
+ * resizable client stretched to 1080p.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CropBenchmark
+{
+    @Param({"765x503", "1920x1080"})
+    private String frameSize;
+
+    private BufferedImage frame;
+    private Rectangle region;
+
+    @Setup
+    public void setUp()
+    {
+        String[] wh = frameSize.split("x");
+        int w = Integer.parseInt(wh[0]);
+        int h = Integer.parseInt(wh[1]);
+
+        // Frames are drawn opaque, and the trade screen sits in the middle.
+        frame = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        double scale = h / 503.0;
+        region = new Rectangle((int) (w / 2 - 244 * scale), (int) (h / 2 - 163 * scale),
+            (int) (488 * scale), (int) (326 * scale));
+    }
+
+    @Benchmark
+    public BufferedImage copyRegion()
+    {
+        return ClientUtil.copyRegion(frame, region);
+    }
+}
@@ -0,0 +1,133 @@
+package org.agilityfc.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The lookups behind autocompletion of the "From" field, against rosters of
+ * increasing size: prefix completion from the name index and the donor
+ * directory, and fuzzy suggestions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NameBenchmark
+{
+    private static final String CHARS = "abcdefghijklmnopqrstuvwxyz0123456789 ";
+    private static final int QUERIES = 1024;
+
+    @Param({"100", "1000", "10000"})
+    private int names;
+
+    private NameIndex.Snapshot snapshot;
+    private DonorDirectory donors;
+    private ScheduledExecutorService executor;
+
+    private String[] prefixes;
+    private String[] typos;
+    private int next;
+
+    private static String name(Random random)
+    {
+        StringBuilder sb = new StringBuilder();
+        int length = 3 + random.nextInt(10);
+
+        sb.append((char) ('A' + random.nextInt(26)));
+        while (sb.length() < length)
+        {
+            sb.append(CHARS.charAt(random.nextInt(CHARS.length() - 1)));
+        }
+
+        return sb.toString();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        Random random = new Random(names);
+        NameIndex.Source[] sources = NameIndex.Source.values();
+        NameIndex index = new NameIndex();
+
+        // NOTE: The directory is never started, so nothing is written.
+        executor = Executors.newSingleThreadScheduledExecutor();
+        donors = new DonorDirectory(executor);
+
+        String[] roster = new String[names];
+        for (int i = 0; i < names; i++)
+        {
+            roster[i] = name(random);
+            index.add(sources[i % sources.length], roster[i]);
+
+            if (i % 4 == 0)
+            {
+                for (int n = random.nextInt(5); n >= 0; n--)
+                {
+                    donors.record(roster[i]);
+                }
+            }
+        }
+
+        snapshot = index.snapshot();
+
+        prefixes = new String[QUERIES];
+        typos = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++)
+        {
+            String n = roster[random.nextInt(names)];
+            prefixes[i] = n.substring(0, 1 + random.nextInt(Math.min(3, n.length())));
+
+            char[] cs = n.toCharArray();
+            cs[random.nextInt(cs.length)] = CHARS.charAt(random.nextInt(26));
+            typos[i] = new String(cs);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    private int next()
+    {
+        return next = (next + 1) & (QUERIES - 1);
+    }
+
+    @Benchmark
+    public String find()
+    {
+        return snapshot.find(prefixes[next()]);
+    }
+
+    @Benchmark
+    public String completeDonor()
+    {
+        return donors.complete(prefixes[next()]);
+    }
+
+    @Benchmark
+    public List<String> suggest()
+    {
+        return snapshot.suggest(typos[next()], 2, 5);
+    }
+}
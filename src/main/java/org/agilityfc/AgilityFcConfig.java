@@ -4,12 +4,16 @@ import net.runelite.client.config.Config;
 import net.runelite.client.config.ConfigGroup;
 import net.runelite.client.config.ConfigItem;
 import net.runelite.client.config.ConfigSection;
+import net.runelite.client.config.Range;
+import net.runelite.client.config.Units;
 
 import java.util.UUID;
 
-@ConfigGroup("agilityfc")
+@ConfigGroup(AgilityFcConfig.GROUP)
 public interface AgilityFcConfig extends Config
 {
+    String GROUP = "agilityfc";
+
     @ConfigSection(
         name = "Donation Service",
         description = "For AFC moderators",
@@ -41,4 +45,117 @@ public interface AgilityFcConfig extends Config
     {
         return UUID.randomUUID().toString();
     }
+
+    @ConfigItem(
+        keyName = "batchMode",
+        name = "Batch mode",
+        description = "Collect donations and send them to the service together",
+        section = donationSection,
+        position = 2
+    )
+    default boolean batchMode()
+    {
+        return false;
+    }
+
+    @Range(min = 1, max = 100)
+    @ConfigItem(
+        keyName = "batchSize",
+        name = "Batch size",
+        description = "Send the batch once this many donations are pending",
+        section = donationSection,
+        position = 3
+    )
+    default int batchSize()
+    {
+        return 20;
+    }
+
+    @Units(Units.SECONDS)
+    @Range(min = 1)
+    @ConfigItem(
+        keyName = "batchWindow",
+        name = "Batch window",
+        description = "Send the batch this long after its first donation was added",
+        section = donationSection,
+        position = 4
+    )
+    default int batchWindow()
+    {
+        return 60;
+    }
+
+    @ConfigItem(
+        keyName = "screenshotEncoding",
+        name = "Screenshot encoding",
+        description = "Trade screenshot size for encoding speed, e.g. on a slow machine",
+        section = donationSection,
+        position = 5
+    )
+    default ScreenshotEncoding screenshotEncoding()
+    {
+        return ScreenshotEncoding.BALANCED;
+    }
+
+    @ConfigItem(
+        keyName = "screenshotFormat",
+        name = "Screenshot format",
+        description = "The image format to send screenshots in, if the service accepts it",
+        section = donationSection,
+        position = 6
+    )
+    default ScreenshotFormat screenshotFormat()
+    {
+        return ScreenshotFormat.PNG;
+    }
+
+    @ConfigItem(
+        keyName = "retroCapture",
+        name = "Retroactive capture",
+        description = "Keep recent screenshots of open donation interfaces, so they can be scraped shortly after closing",
+        section = donationSection,
+        position = 7
+    )
+    default boolean retroCapture()
+    {
+        return false;
+    }
+
+    @Units(" MB")
+    @Range(min = 1, max = 256)
+    @ConfigItem(
+        keyName = "retroCaptureBudget",
+        name = "Retroactive capture memory",
+        description = "The memory to spend on screenshots kept for retroactive capture",
+        section = donationSection,
+        position = 8
+    )
+    default int retroCaptureBudget()
+    {
+        return 16;
+    }
+
+    @ConfigItem(
+        keyName = "preconnect",
+        name = "Pre-connect",
+        description = "Connect to the service when a donation interface opens, so sending is quicker",
+        section = donationSection,
+        position = 9
+    )
+    default boolean preconnect()
+    {
+        return false;
+    }
+
+    @ConfigItem(
+        keyName = "deferredUpload",
+        name = "Upload screenshots later",
+        description = "If the service supports it, send donations without waiting for their screenshots, which are uploaded in the background",
+        section = donationSection,
+        position = 10
+    )
+    default boolean deferredUpload()
+    {
+        return false;
+    }
 }
@@ -1,47 +1,53 @@
 package org.agilityfc;
 
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import net.runelite.client.ui.ColorScheme;
 import net.runelite.client.ui.FontManager;
 import net.runelite.client.ui.PluginPanel;
 import net.runelite.client.ui.components.IconTextField;
-import net.runelite.client.util.ImageCapture;
-import net.runelite.client.util.ImageUtil;
 import net.runelite.client.util.QuantityFormatter;
 import net.runelite.client.util.Text;
-import okhttp3.Call;
-import okhttp3.Response;
 import org.agilityfc.util.GridBagConstraintsBuilder;
+import org.agilityfc.util.IoExecutor;
+import org.agilityfc.util.Metrics;
 import org.agilityfc.util.NameAutocompleter;
 
 import javax.inject.Inject;
 import javax.swing.BorderFactory;
+import javax.swing.BoxLayout;
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
 import javax.swing.JComponent;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.JScrollPane;
 import javax.swing.JSeparator;
+import javax.swing.JTextArea;
 import javax.swing.JTextField;
 import javax.swing.SwingConstants;
-import javax.swing.SwingWorker;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.border.EmptyBorder;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Dimension;
-import java.awt.Graphics;
+import java.awt.Font;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.awt.Toolkit;
 import java.awt.datatransfer.StringSelection;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import java.awt.geom.AffineTransform;
-import java.awt.image.AffineTransformOp;
 import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
 
 @Slf4j
 public class AgilityFcPanel extends PluginPanel
@@ -51,31 +57,70 @@ public class AgilityFcPanel extends PluginPanel
     private static final Dimension STANDARD_DIM = new Dimension(
         PluginPanel.PANEL_WIDTH - 20, 30);
 
-    private static final Dimension SCREENSHOT_DIM = new Dimension(
-        PluginPanel.PANEL_WIDTH - 20, (int) (0.75 * PluginPanel.PANEL_WIDTH));
+    private static final Duration SCRAPE_TIMEOUT = Duration.ofSeconds(5);
 
-    private static final BufferedImage AGILITY_ICON =
-        ImageUtil.loadImageResource(AgilityFcPlugin.class, "icon.png");
+    private static final int DIAGNOSTICS_REFRESH_MS = 1000;
 
-    private static final String SCREENSHOT_DIR = "AFC";
+    /// A batched donation that the service rejected.
+    @Value
+    private static class BatchRejection
+    {
+        private DonationInfo donationInfo;
+        private String error;
+    }
+
+    @Inject
+    private DonationScraper scraper;
 
     @Inject
-    private ImageCapture imageCapture;
+    private DonationRecorder recorder;
 
     @Inject
-    private DonationScraper scraper;
+    private DonationPrescraper prescraper;
 
     @Inject
-    private AgilityFcPlugin plugin;
+    private Metrics metrics;
+
+    @Inject
+    private ScreenshotArchive archive;
+
+    @Inject
+    private IoExecutor ioExecutor;
 
     private DonationInfo scrapedDono;
-    private SendWorker sendWorker;
+    private final List<BatchRejection> batchRejections = new ArrayList<>();
+    private CompletableFuture<DonationInfo> scrapeFuture;
     private final IconTextField fromField;
     private final JTextField toField;
     private final JTextField amountField;
     private final JLabel screenshotLabel;
     private final JButton scrapeButton;
     private final JButton sendButton;
+    private final JButton batchButton;
+    private final JPanel queuePanel;
+    private final JLabel outboxLabel;
+    private final JPanel rejectedPanel;
+    private final JLabel totalsLabel;
+    private final JButton diagnosticsButton;
+    private final JPanel diagnosticsPanel;
+    private final JTextArea diagnosticsText;
+    private final Timer diagnosticsTimer;
+    private final DonationOutbox outbox;
+    private final DonationBatcher batcher;
+    private final SendQueue sendQueue;
+    private final AgilityFcConfig config;
+    private final Thumbnails thumbnails;
+    private final DonationLedger ledger;
+
+    /// Listeners on the singletons, which outlive the panel.
+    private final Runnable queueListener =
+        () -> SwingUtilities.invokeLater(this::updateQueue);
+    private final Runnable outboxListener =
+        () -> SwingUtilities.invokeLater(this::updateOutbox);
+    private final Runnable ledgerListener =
+        () -> SwingUtilities.invokeLater(this::updateTotals);
+    private final Runnable batchListener =
+        () -> SwingUtilities.invokeLater(this::updateBatch);
 
     private static JPanel labeledComponent(String name, JComponent component)
     {
@@ -93,64 +138,187 @@ public class AgilityFcPanel extends PluginPanel
         return panel;
     }
 
-    private static BufferedImage fitImage(BufferedImage img, Dimension dim)
+    private static void copyString(String s)
     {
-        int iw = img.getWidth();
-        int ih = img.getHeight();
-        int dw = (int) dim.getWidth();
-        int dh = (int) dim.getHeight();
+        Toolkit.getDefaultToolkit().getSystemClipboard()
+            .setContents(new StringSelection(s), null);
+    }
+
+    private static boolean isNameValid(String from)
+    {
+        String clean = Text.toJagexName(from);
+        int length = clean.length();
+
+        return from.length() == clean.length() &&
+            length > 0 &&
+            length <= MAX_USERNAME_LENGTH;
+    }
 
-        if (iw == dw && ih == dh) return img;
+    private void setScreenshot(BufferedImage img)
+    {
+        CompletableFuture<ImageIcon> f = thumbnails.render(img);
+        if (f.isDone() && !f.isCompletedExceptionally())
+        {
+            screenshotLabel.setIcon(f.join());
+            return;
+        }
 
-        if (iw > dw || ih > dh)
+        f.whenComplete((icon, e) -> SwingUtilities.invokeLater(() ->
         {
-            double fact = Math.min((double) dw / iw, (double) dh / ih);
+            if (e != null)
+            {
+                log.warn("Could not render screenshot preview", e);
+                return;
+            }
+
+            // NOTE: Another donation may have been set meanwhile.
+            if (scrapedDono != null && scrapedDono.getScreenshot() == img)
+            {
+                screenshotLabel.setIcon(icon);
+            }
+        }));
+    }
 
-            AffineTransform xform = AffineTransform.getScaleInstance(fact, fact);
-            AffineTransformOp op = new AffineTransformOp(
-                xform, AffineTransformOp.TYPE_BILINEAR);
+    private static JPanel rejectedRow(String from, long amount, String error,
+        Runnable retry, Runnable dismiss)
+    {
+        JLabel label = new JLabel(String.format(
+            "<html>%s, %s gp<br>Rejected: %s</html>",
+            from, QuantityFormatter.quantityToStackSize(amount), error));
+        label.setFont(FontManager.getRunescapeSmallFont());
+        label.setForeground(ColorScheme.PROGRESS_ERROR_COLOR);
+
+        JButton retryButton = new JButton("\u21bb");
+        retryButton.setToolTipText("Retry");
+        retryButton.addActionListener(ev -> retry.run());
+
+        JButton dismissButton = new JButton("\u2715");
+        dismissButton.setToolTipText("Dismiss");
+        dismissButton.addActionListener(ev -> dismiss.run());
+
+        JPanel buttons = new JPanel(new BorderLayout(3, 0));
+        buttons.add(retryButton, BorderLayout.WEST);
+        buttons.add(dismissButton, BorderLayout.EAST);
+
+        JPanel row = new JPanel(new BorderLayout(3, 0));
+        row.setBorder(new EmptyBorder(2, 0, 2, 0));
+        row.add(label, BorderLayout.CENTER);
+        row.add(buttons, BorderLayout.EAST);
+
+        return row;
+    }
+
+    private void updateOutbox()
+    {
+        int size = outbox.size();
+        outboxLabel.setText(String.format("Outbox: %d queued", size));
+        outboxLabel.setVisible(size > 0);
+
+        updateRejected();
+    }
 
-            img = op.filter(img, null);
-            iw = img.getWidth();
-            ih = img.getHeight();
+    private void updateRejected()
+    {
+        rejectedPanel.removeAll();
+
+        for (DonationOutbox.Entry e : outbox.rejected())
+        {
+            rejectedPanel.add(rejectedRow(
+                e.getFrom(), e.getAmount(), e.getRejection(),
+                () -> outbox.retry(e), () -> outbox.dismiss(e)));
         }
 
-        BufferedImage r = new BufferedImage(dw, dh, BufferedImage.TYPE_INT_ARGB);
-        Graphics g = r.getGraphics();
-        g.drawImage(img, (dw - iw) / 2, (dh - ih) / 2, null);
-        g.dispose();
+        for (BatchRejection r : batchRejections)
+        {
+            DonationInfo di = r.getDonationInfo();
+            rejectedPanel.add(rejectedRow(
+                di.getFrom(), di.getAmount(), r.getError(),
+                () ->
+                {
+                    batchRejections.remove(r);
+                    addToBatch(di);
+                    updateRejected();
+                },
+                () ->
+                {
+                    batchRejections.remove(r);
+                    updateRejected();
+                }));
+        }
 
-        return r;
+        rejectedPanel.setVisible(rejectedPanel.getComponentCount() > 0);
+        rejectedPanel.revalidate();
+        rejectedPanel.repaint();
     }
 
-    private static void copyString(String s)
+    private JPanel queueRow(SendQueue.Entry e)
     {
-        Toolkit.getDefaultToolkit().getSystemClipboard()
-            .setContents(new StringSelection(s), null);
+        DonationInfo di = e.getDonationInfo();
+
+        JLabel label = new JLabel(String.format("<html>%s, %s gp<br>%s</html>",
+            di.getFrom(), QuantityFormatter.quantityToStackSize(di.getAmount()),
+            e.getStatus()));
+        label.setFont(FontManager.getRunescapeSmallFont());
+        if (e.getStatus() == SendQueue.Status.FAILED)
+        {
+            label.setForeground(ColorScheme.PROGRESS_ERROR_COLOR);
+        }
+
+        JButton cancelButton = new JButton("\u2715");
+        cancelButton.setToolTipText(e.getStatus() == SendQueue.Status.FAILED
+            ? "Dismiss" : "Cancel");
+        cancelButton.addActionListener(ev -> sendQueue.cancel(e));
+
+        JPanel row = new JPanel(new BorderLayout(3, 0));
+        row.setBorder(new EmptyBorder(2, 0, 2, 0));
+        row.add(label, BorderLayout.CENTER);
+        row.add(cancelButton, BorderLayout.EAST);
+
+        return row;
     }
 
-    private static String screenshotName(DonationInfo di)
+    private void updateQueue()
     {
-        assert di.getFrom() != null;
-        return String.format("Donation (%s) (%s)",
-            di.getFrom(),
-            QuantityFormatter.quantityToRSDecimalStack(di.getAmount(), true)
-                .toLowerCase());
+        // NOTE: The queue rarely holds more than a few entries, so the rows
+        // are simply rebuilt.
+        queuePanel.removeAll();
+        sendQueue.entries().forEach(e -> queuePanel.add(queueRow(e)));
+        queuePanel.setVisible(queuePanel.getComponentCount() > 0);
+        queuePanel.revalidate();
+        queuePanel.repaint();
     }
 
-    private static boolean isNameValid(String from)
+    private void updateBatch()
     {
-        String clean = Text.toJagexName(from);
-        int length = clean.length();
+        int size = batcher.size();
+        batchButton.setText(String.format("Send batch (%d)", size));
+        batchButton.setEnabled(size > 0);
+        batchButton.setVisible(config.batchMode() || size > 0);
+    }
 
-        return from.length() == clean.length() &&
-            length > 0 &&
-            length <= MAX_USERNAME_LENGTH;
+    private static String formatTotals(String name, DonationLedger.Totals t)
+    {
+        return String.format("%s: %d for %s gp", name, t.getCount(),
+            QuantityFormatter.quantityToStackSize(t.getAmount()));
     }
 
-    private void setScreenshot(BufferedImage img)
+    private void updateTotals()
     {
-        screenshotLabel.setIcon(new ImageIcon(fitImage(img, SCREENSHOT_DIM)));
+        StringBuilder sb = new StringBuilder("<html>")
+            .append(formatTotals("Session", ledger.session())).append("<br>")
+            .append(formatTotals("Today", ledger.today()));
+
+        String from = fromField.getText();
+        if (isNameValid(from))
+        {
+            DonationLedger.Totals t = ledger.donor(from);
+            if (t.getCount() > 0)
+            {
+                sb.append("<br>").append(formatTotals(from, t));
+            }
+        }
+
+        totalsLabel.setText(sb.append("</html>").toString());
     }
 
     private void clearDonation()
@@ -159,14 +327,59 @@ public class AgilityFcPanel extends PluginPanel
         fromField.setText("");
         toField.setText("");
         amountField.setText("");
-        setScreenshot(AGILITY_ICON);
+        screenshotLabel.setIcon(thumbnails.placeholder());
     }
 
     private void scrapeDonation()
     {
-        DonationInfo di = scraper.scrapeDonation();
-        if (di == null) return;
+        DonationInfo di = prescraper.prepared();
+        if (di == null && config.retroCapture()) di = recorder.latest();
 
+        if (di != null)
+        {
+            setDonation(di);
+            return;
+        }
+
+        // Repeated clicks coalesce into the scrape already in flight.
+        if (scrapeFuture != null) return;
+
+        CompletableFuture<DonationInfo> f =
+            scraper.scrapeDonationAsync(SCRAPE_TIMEOUT);
+        scrapeFuture = f;
+
+        // NOTE: Start on the preview right away, rather than once the EDT gets
+        // to the result.
+        f.thenAccept(r ->
+        {
+            if (r != null) thumbnails.render(r.getScreenshot());
+        });
+        f.whenComplete((r, e) -> SwingUtilities.invokeLater(() ->
+        {
+            if (scrapeFuture == f) scrapeFuture = null;
+
+            if (e instanceof CancellationException) return;
+
+            if (e != null)
+            {
+                log.warn("Scrape failed", e);
+                return;
+            }
+
+            if (r != null) setDonation(r);
+        }));
+    }
+
+    private void cancelScrape()
+    {
+        if (scrapeFuture == null) return;
+
+        scrapeFuture.cancel(false);
+        scrapeFuture = null;
+    }
+
+    private void setDonation(DonationInfo di)
+    {
         // Use the scraped `from` if present, otherwise keep the current one.
         String scrapedFrom = di.getFrom();
         String from = scrapedFrom != null ? scrapedFrom : fromField.getText();
@@ -182,107 +395,129 @@ public class AgilityFcPanel extends PluginPanel
         sendButton.setEnabled(true);
     }
 
-    class SendWorker extends SwingWorker<Void, Void>
+    private void sendDonation()
     {
-        private final DonationInfo di;
-        private final CompletableFuture<Call> future;
+        assert scrapedDono != null;
+        String from = fromField.getText();
 
-        public SendWorker(DonationInfo di)
+        if (isNameValid(from) && config.batchMode())
         {
-            this.di = di;
-            this.future = new CompletableFuture<>();
-        }
+            addToBatch(scrapedDono.withFrom(from));
 
-        public DonationInfo getDonationInfo()
-        {
-            return di;
+            fromField.setIcon(IconTextField.Icon.SEARCH);
+            sendButton.setEnabled(false);
+            clearDonation();
         }
+        else if (isNameValid(from))
+        {
+            sendQueue.add(scrapedDono.withFrom(from));
 
-        public void cancel()
+            fromField.setIcon(IconTextField.Icon.SEARCH);
+            sendButton.setEnabled(false);
+            clearDonation();
+        }
+        else
         {
-            cancel(true);
-            future.thenAccept(Call::cancel);
+            fromField.setIcon(IconTextField.Icon.ERROR);
         }
+    }
 
-        @Override
-        protected Void doInBackground() throws Exception
+    private void addToBatch(DonationInfo di)
+    {
+        batcher.add(di).whenComplete((v, e) ->
         {
-            Call call = plugin.makeCall(di);
-            future.complete(call);
+            archive.save(di, e == null);
 
-            try (Response r = call.execute())
+            if (e instanceof DonationBatcher.RejectedException)
             {
-                if (r.code() != 200)
+                BatchRejection r = new BatchRejection(di, e.getMessage());
+                SwingUtilities.invokeLater(() ->
                 {
-                    throw new RuntimeException(
-                        String.format("Unexpected response: %s, \"%s\"",
-                            r.code(), r.body().string()));
-                }
+                    batchRejections.add(r);
+                    updateRejected();
+                });
             }
+        });
+    }
 
-            return null;
-        }
+    private void updateDiagnostics()
+    {
+        diagnosticsText.setText(metrics.report());
+    }
 
-        private void saveScreenshot(DonationInfo di, boolean success)
+    private void toggleDiagnostics()
+    {
+        boolean show = !diagnosticsPanel.isVisible();
+        diagnosticsPanel.setVisible(show);
+        diagnosticsButton.setText(show ? "Hide diagnostics" : "Show diagnostics");
+
+        if (show)
         {
-            CompletableFuture.runAsync(() -> {
-                String name = screenshotName(di);
-                imageCapture.saveScreenshot(
-                    di.getScreenshot(), success ? name : name + " (Failed)",
-                    SCREENSHOT_DIR, true, true);
-            });
+            updateDiagnostics();
+            diagnosticsTimer.start();
         }
-
-        @Override
-        protected void done()
+        else
         {
-            fromField.setEditable(true);
-            scrapeButton.setEnabled(true);
+            diagnosticsTimer.stop();
+        }
+    }
 
+    private void dumpDiagnostics()
+    {
+        ioExecutor.execute(() ->
+        {
             try
             {
-                get();
-                fromField.setIcon(IconTextField.Icon.SEARCH);
-                clearDonation();
-                saveScreenshot(di, true);
+                metrics.dump();
             }
-            catch (InterruptedException | ExecutionException |
-                   CancellationException e)
+            catch (IOException e)
             {
-                log.error("Send failed", e);
-                fromField.setIcon(IconTextField.Icon.ERROR);
-                sendButton.setEnabled(true);
-                saveScreenshot(di, false);
+                log.error("Could not write metrics", e);
             }
-        }
+        });
     }
 
-    private void sendDonation()
+    @Override
+    public void onActivate()
     {
-        assert scrapedDono != null;
-        String from = fromField.getText();
+        if (diagnosticsPanel.isVisible()) diagnosticsTimer.start();
+    }
 
-        if (isNameValid(from))
-        {
-            fromField.setIcon(IconTextField.Icon.LOADING);
-            fromField.setEditable(false);
-            scrapeButton.setEnabled(false);
-            sendButton.setEnabled(false);
+    @Override
+    public void onDeactivate()
+    {
+        cancelScrape();
+        diagnosticsTimer.stop();
+    }
 
-            DonationInfo di = scrapedDono.withFrom(from);
-            sendWorker = new SendWorker(di);
-            sendWorker.execute();
-        }
-        else
-        {
-            fromField.setIcon(IconTextField.Icon.ERROR);
-        }
+    /**
+     * Detaches the panel from the singletons it listens to, so that it can
+     * be dropped when the plugin shuts down.
+     */
+    void stop()
+    {
+        sendQueue.removeListener(queueListener);
+        outbox.removeListener(outboxListener);
+        ledger.removeListener(ledgerListener);
+        batcher.removeListener(batchListener);
+
+        cancelScrape();
+        diagnosticsTimer.stop();
     }
 
     @Inject
     public AgilityFcPanel(
-        NameAutocompleter nameAutocompleter, AgilityFcConfig config)
+        NameAutocompleter nameAutocompleter, AgilityFcConfig config,
+        DonationOutbox outbox, DonationBatcher batcher, Thumbnails thumbnails,
+        DonationLedger ledger, SendQueue sendQueue)
     {
+        this.outbox = outbox;
+        this.batcher = batcher;
+        this.config = config;
+        this.thumbnails = thumbnails;
+        this.ledger = ledger;
+        this.sendQueue = sendQueue;
+
         setBorder(BorderFactory.createEmptyBorder(10, 10, 0, 10));
         setBackground(ColorScheme.DARK_GRAY_COLOR);
         setLayout(new GridBagLayout());
@@ -307,30 +542,7 @@ public class AgilityFcPanel extends PluginPanel
                 fromField.setText("AFC always wins");
             }
         });
-        fromField.addClearListener(() ->
-        {
-            if (sendWorker == null)
-            {
-                fromField.setIcon(IconTextField.Icon.SEARCH);
-            }
-            else
-            {
-                sendWorker.cancel();
-
-                if (sendWorker.isCancelled())
-                {
-                    // NOTE: Set back the cleared text and leave it up to the
-                    // worker's `done()` method to do the rest.
-                    fromField.setText(sendWorker.getDonationInfo().getFrom());
-                }
-                else
-                {
-                    fromField.setIcon(IconTextField.Icon.SEARCH);
-                }
-
-                sendWorker = null;
-            }
-        });
+        fromField.addClearListener(() -> fromField.setIcon(IconTextField.Icon.SEARCH));
 
         toField = new JTextField();
         toField.setPreferredSize(STANDARD_DIM);
@@ -354,6 +566,67 @@ public class AgilityFcPanel extends PluginPanel
         sendButton.setPreferredSize(STANDARD_DIM);
         sendButton.setEnabled(false);
 
+        batchButton = new JButton();
+        batchButton.addActionListener(e -> batcher.flush());
+        batchButton.setPreferredSize(STANDARD_DIM);
+
+        queuePanel = new JPanel();
+        queuePanel.setLayout(new BoxLayout(queuePanel, BoxLayout.Y_AXIS));
+        sendQueue.addListener(queueListener);
+
+        outboxLabel = new JLabel();
+        outboxLabel.setFont(FontManager.getRunescapeSmallFont());
+        outboxLabel.setHorizontalAlignment(SwingConstants.CENTER);
+
+        rejectedPanel = new JPanel();
+        rejectedPanel.setLayout(new BoxLayout(rejectedPanel, BoxLayout.Y_AXIS));
+        outbox.addListener(outboxListener);
+
+        totalsLabel = new JLabel();
+        totalsLabel.setFont(FontManager.getRunescapeSmallFont());
+        ledger.addListener(ledgerListener);
+        fromField.getTextField().getDocument().addDocumentListener(
+            new DocumentListener()
+            {
+                @Override
+                public void insertUpdate(DocumentEvent e)
+                {
+                    updateTotals();
+                }
+
+                @Override
+                public void removeUpdate(DocumentEvent e)
+                {
+                    updateTotals();
+                }
+
+                @Override
+                public void changedUpdate(DocumentEvent e)
+                {
+                }
+            });
+        batcher.addListener(batchListener);
+
+        diagnosticsButton = new JButton("Show diagnostics");
+        diagnosticsButton.addActionListener(e -> toggleDiagnostics());
+        diagnosticsButton.setPreferredSize(STANDARD_DIM);
+
+        diagnosticsText = new JTextArea();
+        diagnosticsText.setEditable(false);
+        diagnosticsText.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 10));
+        diagnosticsText.setBackground(ColorScheme.DARKER_GRAY_COLOR);
+
+        JButton dumpButton = new JButton("Dump to file");
+        dumpButton.addActionListener(e -> dumpDiagnostics());
+        dumpButton.setPreferredSize(STANDARD_DIM);
+
+        diagnosticsPanel = new JPanel(new BorderLayout(0, 3));
+        diagnosticsPanel.add(new JScrollPane(diagnosticsText), BorderLayout.CENTER);
+        diagnosticsPanel.add(dumpButton, BorderLayout.SOUTH);
+        diagnosticsPanel.setVisible(false);
+
+        diagnosticsTimer = new Timer(DIAGNOSTICS_REFRESH_MS, e -> updateDiagnostics());
+
         JButton copyKeyButton = new JButton("Copy key");
         copyKeyButton.addActionListener(e -> copyString(config.key()));
         copyKeyButton.setPreferredSize(STANDARD_DIM);
@@ -369,9 +642,20 @@ public class AgilityFcPanel extends PluginPanel
         add(labeledComponent("Screenshot", screenshotLabel), b.y(3).build());
         add(scrapeButton, b.y(4).build());
         add(sendButton, b.y(5).build());
-        add(new JSeparator(), b.y(6).build());
-        add(copyKeyButton, b.y(7).build());
+        add(batchButton, b.y(6).build());
+        add(queuePanel, b.y(7).build());
+        add(outboxLabel, b.y(8).build());
+        add(rejectedPanel, b.y(9).build());
+        add(labeledComponent("Totals", totalsLabel), b.y(10).build());
+        add(new JSeparator(), b.y(11).build());
+        add(copyKeyButton, b.y(12).build());
+        add(diagnosticsButton, b.y(13).build());
+        add(diagnosticsPanel, b.y(14).build());
 
         clearDonation();
+        updateQueue();
+        updateOutbox();
+        updateBatch();
+        updateTotals();
     }
 }
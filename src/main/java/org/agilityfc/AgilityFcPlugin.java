@@ -1,9 +1,13 @@
 package org.agilityfc;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
 import com.google.inject.Provides;
 import lombok.extern.slf4j.Slf4j;
+import net.runelite.api.events.WidgetLoaded;
+import net.runelite.client.callback.ClientThread;
 import net.runelite.client.config.ConfigManager;
+import net.runelite.client.eventbus.EventBus;
 import net.runelite.client.eventbus.Subscribe;
 import net.runelite.client.events.ConfigChanged;
 import net.runelite.client.plugins.Plugin;
@@ -12,13 +16,25 @@ import net.runelite.client.ui.ClientToolbar;
 import net.runelite.client.ui.NavigationButton;
 import net.runelite.client.util.ImageUtil;
 import okhttp3.Call;
+import okhttp3.Callback;
 import okhttp3.Credentials;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
+import okhttp3.Response;
+import org.agilityfc.util.DonorDirectory;
+import org.agilityfc.util.ImageEncoder;
+import org.agilityfc.util.Metrics;
+import org.agilityfc.util.NameAutocompleter;
 import org.apache.commons.lang3.StringUtils;
 
 import javax.inject.Inject;
+import java.io.IOException;
 import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Slf4j
 @PluginDescriptor(
@@ -26,6 +42,16 @@ import java.time.Duration;
 )
 public class AgilityFcPlugin extends Plugin
 {
+    private static final Set<String> DEFAULT_FORMATS = Set.of("image/png");
+
+    /// Connections are kept alive for minutes, so there is no point in
+    /// warming them up more often than this.
+    private static final long PRECONNECT_INTERVAL_MS = 60_000;
+
+    /// How long shutting down may wait for sends and writes in total, since
+    /// it may hold up the UI. The outbox journal keeps whatever is left.
+    private static final long STOP_TIMEOUT_MS = 300;
+
     @Inject
     private ClientToolbar clientToolbar;
 
@@ -35,9 +61,78 @@ public class AgilityFcPlugin extends Plugin
     @Inject
     private AgilityFcConfig config;
 
-    private OkHttpClient myHttpClient;
+    @Inject
+    private DonationOutbox outbox;
+
+    @Inject
+    private DonationBatcher batcher;
+
+    @Inject
+    private SendQueue sendQueue;
+
+    @Inject
+    private Gson gson;
+
+    @Inject
+    private EventBus eventBus;
+
+    @Inject
+    private DonationRecorder recorder;
+
+    @Inject
+    private DonationPrescraper prescraper;
+
+    @Inject
+    private NameAutocompleter nameAutocompleter;
+
+    @Inject
+    private DonorDirectory donors;
+
+    @Inject
+    private DonationLedger ledger;
+
+    @Inject
+    private ClientThread clientThread;
+
+    @Inject
+    private DonationScraper scraper;
+
+    @Inject
+    private Metrics metrics;
+
+    private volatile OkHttpClient myHttpClient;
+
+    /// The key {@link #myHttpClient} authenticates with.
+    private String clientKey;
+    private volatile long lastPreconnect;
+    private volatile ImageEncoder encoder;
+    private volatile Set<String> serviceFormats = DEFAULT_FORMATS;
+    private volatile boolean serviceBlobs;
+    private volatile boolean serviceDeferred;
+
+    /// Bumped whenever the formats are negotiated afresh, so that answers to
+    /// earlier requests are ignored.
+    private final AtomicInteger formatsGeneration = new AtomicInteger();
+
+    private AgilityFcPanel panel;
     private NavigationButton navButton;
 
+    static class FormatsResponse
+    {
+        List<String> formats;
+
+        /// Whether screenshots can be uploaded separately, by hash.
+        boolean blobs;
+
+        /// Whether donations can be submitted ahead of their screenshots.
+        boolean deferred;
+    }
+
+    static class MetadataResponse
+    {
+        String id;
+    }
+
     private OkHttpClient makeClient(String key)
     {
         OkHttpClient.Builder builder = httpClient.newBuilder()
@@ -54,39 +149,303 @@ public class AgilityFcPlugin extends Plugin
         return builder.build();
     }
 
+    /**
+     * Rebuilds the HTTP client if the key has changed. The client is shared
+     * by all calls, so that they reuse its pooled connections.
+     */
+    private void updateClient()
+    {
+        String key = config.key();
+        if (myHttpClient != null && key.equals(clientKey)) return;
+
+        clientKey = key;
+        myHttpClient = makeClient(key);
+    }
+
+    private Call makeCall(Request.Builder builder)
+    {
+        return myHttpClient.newCall(builder.url(config.url()).build());
+    }
+
+    /**
+     * Returns whether donations are sent without their screenshots, which
+     * then go through the outbox once the service has acknowledged them.
+     */
+    public boolean isDeferred()
+    {
+        return serviceDeferred && config.deferredUpload();
+    }
+
+    /**
+     * Sends a donation without its screenshot. The response is read with
+     * {@link #donationId}.
+     */
+    public Call makeMetadataCall(DonationInfo di)
+    {
+        return myHttpClient.newCall(DonationRequest.metadata(
+            di.getKey(), di.getFrom(), di.getTo(), di.getAmount(),
+            di.getItems(), config.url()));
+    }
+
+    /**
+     * Returns the id the service acknowledged a donation with, from the
+     * response to a {@link #makeMetadataCall}.
+     */
+    public String donationId(Response r) throws IOException
+    {
+        try
+        {
+            MetadataResponse mr = gson.fromJson(
+                r.body().charStream(), MetadataResponse.class);
+            if (mr == null || mr.id == null || mr.id.isEmpty())
+            {
+                throw new IOException("No donation id in the response");
+            }
+
+            return mr.id;
+        }
+        catch (JsonParseException e)
+        {
+            throw new IOException("Could not read the donation id", e);
+        }
+    }
+
     public Call makeCall(DonationInfo di)
     {
-        Request request = DonationRequest.builder(di)
-            .url(config.url())
-            .build();
+        if (serviceBlobs)
+        {
+            return new ContentAddressedCall(myHttpClient, config.url(), di, encoder);
+        }
+
+        return makeCall(DonationRequest.builder(di, encoder));
+    }
+
+    public Call makeCall(List<DonationInfo> dis)
+    {
+        return myHttpClient.newCall(DonationRequest.batch(dis, encoder, config.url()));
+    }
+
+    /**
+     * Makes the call that delivers a queued donation: the upload of its
+     * screenshot if the service already acknowledged it, or else the
+     * donation itself, without the screenshot if {@code metadata}.
+     */
+    public Call makeCall(DonationOutbox.Entry e, boolean metadata)
+    {
+        if (e.getServerId() != null)
+        {
+            return myHttpClient.newCall(DonationRequest.screenshotUpload(
+                e.getServerId(), e.getScreenshot(), e.getType(), config.url()));
+        }
+
+        if (metadata)
+        {
+            return myHttpClient.newCall(DonationRequest.metadata(
+                e.getKey(), e.getFrom(), e.getTo(), e.getAmount(),
+                e.getItems(), config.url()));
+        }
+
+        if (serviceBlobs)
+        {
+            return new ContentAddressedCall(myHttpClient, config.url(), e);
+        }
+
+        return makeCall(DonationRequest.builder(e));
+    }
+
+    public ImageEncoder getEncoder()
+    {
+        return encoder;
+    }
+
+    private ImageEncoder makeEncoder()
+    {
+        ImageEncoder e = config.screenshotFormat()
+            .encoder(config.screenshotEncoding());
+
+        // Fall back to plain PNG unless the service announced the format.
+        if (!serviceFormats.contains(e.contentType()))
+        {
+            e = ScreenshotFormat.PNG.encoder(config.screenshotEncoding());
+        }
+
+        return metrics.timed(e);
+    }
+
+    /**
+     * Asks the service which image formats it accepts and picks the encoder
+     * accordingly. Until it answers, screenshots are sent as PNG.
+     */
+    private void negotiateFormats()
+    {
+        synchronized (formatsGeneration)
+        {
+            formatsGeneration.incrementAndGet();
+            serviceFormats = DEFAULT_FORMATS;
+            serviceBlobs = false;
+            serviceDeferred = false;
+            encoder = makeEncoder();
+        }
 
-        return myHttpClient.newCall(request);
+        requestFormats();
+    }
+
+    /**
+     * Opens a connection to the service ahead of a send, so that DNS, TCP
+     * and TLS are out of the way by the time it is needed. The formats
+     * request serves as the warm-up.
+     */
+    private void preconnect()
+    {
+        long now = System.currentTimeMillis();
+        if (now - lastPreconnect < PRECONNECT_INTERVAL_MS) return;
+
+        lastPreconnect = now;
+        requestFormats();
+    }
+
+    private void requestFormats()
+    {
+        int generation = formatsGeneration.get();
+        String url = config.url();
+        Request request;
+
+        try
+        {
+            request = DonationRequest.formats(url);
+        }
+        catch (IllegalArgumentException e)
+        {
+            return;
+        }
+
+        myHttpClient.newCall(request).enqueue(new Callback()
+        {
+            @Override
+            public void onFailure(Call call, IOException e)
+            {
+                log.debug("Could not negotiate screenshot formats", e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response r) throws IOException
+            {
+                try (r)
+                {
+                    if (!r.isSuccessful()) return;
+
+                    FormatsResponse fr = gson.fromJson(
+                        r.body().charStream(), FormatsResponse.class);
+                    if (fr == null || fr.formats == null) return;
+
+                    Set<String> formats = new HashSet<>(DEFAULT_FORMATS);
+                    formats.addAll(fr.formats);
+
+                    synchronized (formatsGeneration)
+                    {
+                        // NOTE: The URL may have changed while the request
+                        // was in flight, and its answer is then about
+                        // another service.
+                        if (generation != formatsGeneration.get() ||
+                            !url.equals(config.url()))
+                        {
+                            log.debug("Ignoring the formats of {}", url);
+                            return;
+                        }
+
+                        serviceFormats = formats;
+                        serviceBlobs = fr.blobs;
+                        serviceDeferred = fr.deferred;
+                        encoder = makeEncoder();
+                    }
+                }
+                catch (JsonParseException e)
+                {
+                    log.debug("Could not negotiate screenshot formats", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Sets up the connection to the service, without any of the UI.
+     */
+    void startService()
+    {
+        updateClient();
+        negotiateFormats();
     }
 
     @Override
     protected void startUp() throws Exception
     {
-        myHttpClient = makeClient(config.key());
+        startService();
+        panel = injector.getInstance(AgilityFcPanel.class);
         navButton = NavigationButton.builder()
             .tooltip("Agility FC")
             .icon(ImageUtil.loadImageResource(getClass(), "icon.png"))
             .priority(10)
-            .panel(injector.getInstance(AgilityFcPanel.class))
+            .panel(panel)
             .build();
 
         clientToolbar.addNavigation(navButton);
+        eventBus.register(recorder);
+        eventBus.register(prescraper);
+        eventBus.register(nameAutocompleter);
+        clientThread.invokeLater(nameAutocompleter::rebuild);
+        donors.start();
+        ledger.start();
+        outbox.start();
     }
 
     @Subscribe
     private void onConfigChanged(ConfigChanged e)
     {
-        myHttpClient = makeClient(config.key());
+        if (!AgilityFcConfig.GROUP.equals(e.getGroup())) return;
+
+        switch (e.getKey())
+        {
+            case "key":
+                updateClient();
+                break;
+            case "url":
+                lastPreconnect = 0;
+                negotiateFormats();
+                break;
+            case "screenshotFormat":
+            case "screenshotEncoding":
+                encoder = makeEncoder();
+                break;
+        }
+    }
+
+    @Subscribe
+    private void onWidgetLoaded(WidgetLoaded e)
+    {
+        if (config.preconnect() && scraper.isDonationGroup(e.getGroupId()))
+        {
+            preconnect();
+        }
     }
 
     @Override
     protected void shutDown() throws Exception
     {
         clientToolbar.removeNavigation(navButton);
+        panel.stop();
+        eventBus.unregister(recorder);
+        eventBus.unregister(prescraper);
+        eventBus.unregister(nameAutocompleter);
+        clientThread.invokeLater(nameAutocompleter::clear);
+        recorder.clear();
+        prescraper.clear();
+        long deadline = System.nanoTime()
+            + TimeUnit.MILLISECONDS.toNanos(STOP_TIMEOUT_MS);
+        batcher.stop(deadline);
+        sendQueue.stop(deadline);
+        outbox.stop(deadline);
+        ledger.stop();
+        donors.stop();
     }
 
     @Provides
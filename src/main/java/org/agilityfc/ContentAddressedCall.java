@@ -0,0 +1,333 @@
+package org.agilityfc;
+
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okio.AsyncTimeout;
+import okio.Timeout;
+import org.agilityfc.util.ImageEncoder;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Sends a donation in up to three requests: checks whether the service
+ * already has the screenshot, uploads it only if it does not, and then posts
+ * the donation referring to the screenshot by its hash.
+ * <p>
+ * Retries and duplicate submissions of the same trade thus only cost a few
+ * hundred bytes. The response is the one to the final post, or to the first
+ * request that failed, so that callers can tell a rejection from a failure
+ * that is worth retrying by its code, as with any other call.
+ * <p>
+ * Each request is bounded by the client's call timeout, and the call as a
+ * whole by as many of them as it makes.
+ */
+@Slf4j
+class ContentAddressedCall implements Call
+{
+    private static final int MAX_REQUESTS = 3;
+
+    private final OkHttpClient client;
+    private final String url;
+    private final String key;
+    private final String from;
+    private final String to;
+    private final long amount;
+    private final List<DonationInfo.Item> items;
+
+    private final DonationInfo di;
+    private final ImageEncoder encoder;
+    private byte[] data;
+    private String type;
+    private String hash;
+
+    private final AtomicBoolean executed = new AtomicBoolean();
+    private volatile boolean canceled;
+    private volatile Call current;
+    private volatile Request request;
+
+    private final AsyncTimeout timeout = new AsyncTimeout()
+    {
+        @Override
+        protected void timedOut()
+        {
+            cancel();
+        }
+    };
+
+    ContentAddressedCall(OkHttpClient client, String url, DonationInfo di,
+        ImageEncoder encoder)
+    {
+        this(client, url, di.getKey(), di.getFrom(), di.getTo(), di.getAmount(),
+            di.getItems(), di, encoder, null, null);
+    }
+
+    ContentAddressedCall(OkHttpClient client, String url, DonationOutbox.Entry e)
+    {
+        this(client, url, e.getKey(), e.getFrom(), e.getTo(), e.getAmount(),
+            e.getItems(), null, null, e.getScreenshot(), e.getType());
+    }
+
+    private ContentAddressedCall(OkHttpClient client, String url, String key,
+        String from, String to, long amount, List<DonationInfo.Item> items,
+        DonationInfo di, ImageEncoder encoder, byte[] data, String type)
+    {
+        this.client = client;
+        this.url = url;
+        this.key = key;
+        this.from = from;
+        this.to = to;
+        this.amount = amount;
+        this.items = items;
+        this.di = di;
+        this.encoder = encoder;
+        this.data = data;
+        this.type = type;
+
+        long ms = client.callTimeoutMillis();
+        if (ms > 0) timeout.timeout(MAX_REQUESTS * ms, TimeUnit.MILLISECONDS);
+    }
+
+    private Response run(Request r) throws IOException
+    {
+        Call call = client.newCall(r);
+        current = call;
+
+        if (canceled)
+        {
+            call.cancel();
+            throw new IOException("Canceled");
+        }
+
+        return call.execute();
+    }
+
+    @Override
+    public Request request()
+    {
+        // NOTE: The final request is only known once the screenshot has been
+        // hashed, until then the check stands in for it.
+        Request r = request;
+        return r != null ? r : new Request.Builder().url(url).head().build();
+    }
+
+    @Override
+    public Response execute() throws IOException
+    {
+        if (!executed.compareAndSet(false, true))
+        {
+            throw new IllegalStateException("Already executed");
+        }
+
+        timeout.enter();
+        Response r;
+        try
+        {
+            r = send();
+        }
+        catch (IOException e)
+        {
+            throw timeoutExit(e);
+        }
+        catch (RuntimeException e)
+        {
+            timeout.exit();
+            throw e;
+        }
+
+        timeout.exit();
+        return r;
+    }
+
+    /**
+     * Returns {@code e}, or if the call timed out, an exception that says so.
+     */
+    private IOException timeoutExit(IOException e)
+    {
+        if (!timeout.exit()) return e;
+
+        InterruptedIOException t = new InterruptedIOException("timeout");
+        t.initCause(e);
+        return t;
+    }
+
+    /**
+     * Encodes the screenshot if need be, and returns the first request.
+     */
+    private Request prepare() throws IOException
+    {
+        // Encoding happens here rather than up front, so that it stays off
+        // the thread that built the call.
+        if (data == null)
+        {
+            EncodedScreenshot.Encoding e = di.encode(encoder);
+            data = e.getData();
+            type = e.getType();
+        }
+
+        hash = DonationRequest.hash(data);
+        request = DonationRequest.byHash(
+            key, from, to, amount, items, hash, type, url);
+
+        return DonationRequest.blobExists(hash, url);
+    }
+
+    /**
+     * Returns the request that follows the response {@code r} to
+     * {@code sent}, or null if {@code r} is the response to the whole call.
+     */
+    private Request next(Request sent, Response r)
+    {
+        if (sent.method().equals("HEAD"))
+        {
+            if (r.code() == 200) return request;
+            if (r.code() == 404)
+            {
+                return DonationRequest.blobUpload(hash, data, type, url);
+            }
+
+            return null;
+        }
+
+        if (sent.method().equals("PUT") && r.isSuccessful()) return request;
+
+        return null;
+    }
+
+    private Response send() throws IOException
+    {
+        Request sent = prepare();
+
+        while (true)
+        {
+            Response r = run(sent);
+            Request next = next(sent, r);
+            if (next == null) return r;
+
+            r.close();
+            sent = next;
+        }
+    }
+
+    @Override
+    public void enqueue(Callback callback)
+    {
+        if (!executed.compareAndSet(false, true))
+        {
+            throw new IllegalStateException("Already executed");
+        }
+
+        timeout.enter();
+
+        // NOTE: Only the encoding runs on the dispatcher's threads directly,
+        // the requests are enqueued so that the dispatcher's limits apply.
+        client.dispatcher().executorService().execute(() ->
+        {
+            Request first;
+            try
+            {
+                first = prepare();
+            }
+            catch (IOException e)
+            {
+                callback.onFailure(this, timeoutExit(e));
+                return;
+            }
+            catch (RuntimeException e)
+            {
+                callback.onFailure(this, timeoutExit(new IOException(e)));
+                return;
+            }
+
+            enqueue(first, callback);
+        });
+    }
+
+    private void enqueue(Request sent, Callback callback)
+    {
+        Call call = client.newCall(sent);
+        current = call;
+
+        // NOTE: A cancelled call still runs its callback, with a failure.
+        if (canceled) call.cancel();
+
+        call.enqueue(new Callback()
+        {
+            @Override
+            public void onFailure(Call c, IOException e)
+            {
+                callback.onFailure(ContentAddressedCall.this, timeoutExit(e));
+            }
+
+            @Override
+            public void onResponse(Call c, Response r)
+            {
+                Request next = next(sent, r);
+                if (next != null)
+                {
+                    r.close();
+                    enqueue(next, callback);
+                    return;
+                }
+
+                timeout.exit();
+
+                // NOTE: The response is closed even if the callback throws,
+                // and closing it again after the callback did is harmless.
+                try
+                {
+                    callback.onResponse(ContentAddressedCall.this, r);
+                }
+                catch (IOException e)
+                {
+                    log.warn("Callback failed", e);
+                }
+                finally
+                {
+                    r.close();
+                }
+            }
+        });
+    }
+
+    @Override
+    public void cancel()
+    {
+        canceled = true;
+
+        Call c = current;
+        if (c != null) c.cancel();
+    }
+
+    @Override
+    public boolean isExecuted()
+    {
+        return executed.get();
+    }
+
+    @Override
+    public boolean isCanceled()
+    {
+        return canceled;
+    }
+
+    @Override
+    public Timeout timeout()
+    {
+        return timeout;
+    }
+
+    @Override
+    public Call clone()
+    {
+        return new ContentAddressedCall(client, url, key, from, to, amount,
+            items, di, encoder, data, type);
+    }
+}
@@ -0,0 +1,367 @@
+package org.agilityfc;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Response;
+import org.agilityfc.util.DonorDirectory;
+import org.agilityfc.util.Metrics;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects donations and sends them to the service in a single request once
+ * the batch is full, its time window has passed or it is flushed by hand.
+ * <p>
+ * Donations that did not reach the service, or are missing from its answer,
+ * are handed to the outbox, so only the failed entries of a batch get
+ * retried. Donations the service rejected would be rejected again, so they
+ * are only reported, through a {@link RejectedException}.
+ */
+@Slf4j
+@Singleton
+public class DonationBatcher
+{
+    /**
+     * Completes the future of a donation that the service rejected. It is not
+     * retried.
+     */
+    public static class RejectedException extends IOException
+    {
+        RejectedException(String message)
+        {
+            super(message);
+        }
+    }
+
+    static class BatchResponse
+    {
+        List<ItemResult> results;
+    }
+
+    static class ItemResult
+    {
+        int index;
+        boolean ok;
+        String error;
+    }
+
+    private static class Pending
+    {
+        final DonationInfo di;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        Pending(DonationInfo di)
+        {
+            this.di = di;
+        }
+    }
+
+    @Inject
+    private AgilityFcPlugin plugin;
+
+    @Inject
+    private AgilityFcConfig config;
+
+    @Inject
+    private DonationOutbox outbox;
+
+    @Inject
+    private ScheduledExecutorService executor;
+
+    @Inject
+    private Gson gson;
+
+    @Inject
+    private DonorDirectory donors;
+
+    @Inject
+    private DonationLedger ledger;
+
+    @Inject
+    private Metrics metrics;
+
+    private final List<Pending> pending = new ArrayList<>();
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+    private ScheduledFuture<?> windowTask;
+
+    /// Batches sent whose outcome has not been recorded yet.
+    private int unrecorded;
+
+    public void addListener(Runnable listener)
+    {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Runnable listener)
+    {
+        listeners.remove(listener);
+    }
+
+    public synchronized int size()
+    {
+        return pending.size();
+    }
+
+    /**
+     * Adds a donation to the current batch.
+     *
+     * @return a future that completes once the service has accepted the
+     * donation, or completes exceptionally if it was handed to the outbox, or
+     * with a {@link RejectedException} if the service rejected it.
+     */
+    public CompletableFuture<Void> add(DonationInfo di)
+    {
+        assert di.getFrom() != null;
+
+        Pending p = new Pending(di);
+        boolean full;
+
+        synchronized (this)
+        {
+            pending.add(p);
+            full = pending.size() >= config.batchSize();
+
+            if (!full && windowTask == null)
+            {
+                windowTask = executor.schedule(
+                    this::flush, config.batchWindow(), TimeUnit.SECONDS);
+            }
+        }
+
+        listeners.forEach(Runnable::run);
+        if (full) flush();
+
+        return p.future;
+    }
+
+    /**
+     * Hands every pending donation to the outbox without sending it, and
+     * waits until {@code deadline}, in {@link System#nanoTime()} terms, for
+     * batches being sent, so that they are recorded in the ledger or handed to
+     * the outbox before those are stopped.
+     */
+    public void stop(long deadline)
+    {
+        List<Pending> batch;
+
+        synchronized (this)
+        {
+            if (windowTask != null)
+            {
+                windowTask.cancel(false);
+                windowTask = null;
+            }
+
+            batch = new ArrayList<>(pending);
+            pending.clear();
+        }
+
+        for (Pending p : batch)
+        {
+            outbox.offer(p.di);
+            p.future.cancel(false);
+        }
+
+        listeners.forEach(Runnable::run);
+
+        synchronized (this)
+        {
+            try
+            {
+                while (unrecorded > 0)
+                {
+                    long left = TimeUnit.NANOSECONDS.toMillis(
+                        deadline - System.nanoTime());
+                    if (left <= 0) break;
+
+                    wait(left);
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            if (unrecorded > 0)
+            {
+                log.warn("Stopping with {} batches still being sent",
+                    unrecorded);
+            }
+        }
+    }
+
+    /**
+     * Sends every pending donation now.
+     */
+    public void flush()
+    {
+        List<Pending> batch;
+
+        synchronized (this)
+        {
+            if (windowTask != null)
+            {
+                windowTask.cancel(false);
+                windowTask = null;
+            }
+
+            if (pending.isEmpty()) return;
+
+            batch = new ArrayList<>(pending);
+            pending.clear();
+            unrecorded++;
+        }
+
+        listeners.forEach(Runnable::run);
+
+        List<DonationInfo> dis = new ArrayList<>(batch.size());
+        batch.forEach(p -> dis.add(p.di));
+
+        long start = System.nanoTime();
+        Call call;
+        try
+        {
+            call = plugin.makeCall(dis);
+        }
+        catch (RuntimeException e)
+        {
+            fail(batch, e);
+            recorded();
+            return;
+        }
+
+        call.enqueue(new Callback()
+        {
+            @Override
+            public void onFailure(Call call, IOException e)
+            {
+                fail(batch, e);
+                recorded();
+            }
+
+            @Override
+            public void onResponse(Call call, Response r)
+            {
+                try (r)
+                {
+                    String body = r.body().string();
+                    if (!r.isSuccessful())
+                    {
+                        String message = String.format("%s, \"%s\"",
+                            r.code(), body);
+
+                        if (DonationRequest.isRetryable(r.code()))
+                        {
+                            throw new IOException(
+                                "Unexpected response: " + message);
+                        }
+
+                        reject(batch, message);
+                        return;
+                    }
+
+                    metrics.record(Metrics.SEND, start);
+                    complete(batch, gson.fromJson(body, BatchResponse.class));
+                }
+                catch (IOException | JsonParseException e)
+                {
+                    fail(batch, e);
+                }
+                finally
+                {
+                    recorded();
+                }
+            }
+        });
+    }
+
+    private synchronized void recorded()
+    {
+        unrecorded--;
+        notifyAll();
+    }
+
+    private void complete(List<Pending> batch, BatchResponse response)
+    {
+        ItemResult[] results = new ItemResult[batch.size()];
+
+        if (response != null && response.results != null)
+        {
+            for (ItemResult item : response.results)
+            {
+                if (item == null || item.index < 0
+                    || item.index >= results.length)
+                {
+                    continue;
+                }
+
+                results[item.index] = item;
+            }
+        }
+
+        for (int i = 0; i < results.length; i++)
+        {
+            Pending p = batch.get(i);
+            ItemResult item = results[i];
+
+            if (item == null)
+            {
+                // NOTE: Entries missing from the response are treated as
+                // failed so that they are retried rather than lost.
+                log.warn("Batched donation {} is missing from the response", i);
+                outbox.offer(p.di);
+                p.future.completeExceptionally(
+                    new IOException("Missing from the service's response"));
+            }
+            else if (item.ok)
+            {
+                donors.record(p.di.getFrom());
+                ledger.record(p.di, plugin.getEncoder());
+                p.future.complete(null);
+            }
+            else
+            {
+                log.warn("Batched donation {} was rejected: {}", i,
+                    item.error);
+                metrics.increment(Metrics.REJECTIONS);
+                p.future.completeExceptionally(new RejectedException(
+                    item.error == null ? "Rejected by the service" : item.error));
+            }
+        }
+    }
+
+    private void reject(List<Pending> batch, String error)
+    {
+        log.error("Batch was rejected: {}", error);
+        metrics.increment(Metrics.REJECTIONS);
+
+        for (Pending p : batch)
+        {
+            p.future.completeExceptionally(new RejectedException(error));
+        }
+    }
+
+    private void fail(List<Pending> batch, Exception e)
+    {
+        log.error("Batch send failed", e);
+        metrics.increment(Metrics.BATCH_FAILURES);
+
+        for (Pending p : batch)
+        {
+            outbox.offer(p.di);
+            p.future.completeExceptionally(e);
+        }
+    }
+}
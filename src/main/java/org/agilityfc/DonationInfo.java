@@ -1,16 +1,44 @@
 package org.agilityfc;
 
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
 import lombok.NonNull;
+import lombok.ToString;
 import lombok.Value;
-import lombok.With;
+import org.agilityfc.util.ImageEncoder;
 
 import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
 
 @Value
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
 public class DonationInfo
 {
+    /**
+     * A stack of items that was donated.
+     */
+    @Value
+    public static class Item
+    {
+        /// Canonical item id.
+        private int id;
+
+        private int quantity;
+
+        /// Guide price of a single item, in GP.
+        private long price;
+
+        public long getValue()
+        {
+            return quantity * price;
+        }
+    }
+
     /// Display name of the donor.
-    @With
     private String from;
 
     /// Display name of the receiver.
@@ -18,9 +46,56 @@ public class DonationInfo
     private String to;
 
     /// A non-negative amount of GP.
-    private int amount;
+    private long amount;
+
+    /// The donated items, if the interface holds them, priced at the time of
+    /// the scrape. Empty if only the amount is known.
+    @NonNull
+    private List<Item> items;
 
     /// Screenshot of the trade, price check or looting bag screen.
     @NonNull
     private BufferedImage screenshot;
+
+    /// Identifies the donation to the service, so that a retry of a send it
+    /// already processed is not counted twice. Shared with the copies made by
+    /// {@link #withFrom}.
+    @EqualsAndHashCode.Exclude
+    private String key;
+
+    /// Encodings of the screenshot, shared with the copies made by
+    /// {@link #withFrom}.
+    @Getter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private EncodedScreenshot encodings;
+
+    public DonationInfo(String from, String to, long amount, BufferedImage screenshot)
+    {
+        this(from, to, amount, List.of(), screenshot);
+    }
+
+    public DonationInfo(
+        String from, String to, long amount, List<Item> items,
+        BufferedImage screenshot)
+    {
+        this(from, to, amount, List.copyOf(items), screenshot,
+            UUID.randomUUID().toString(), new EncodedScreenshot(screenshot));
+    }
+
+    public DonationInfo withFrom(String from)
+    {
+        return this.from == from ? this
+            : new DonationInfo(from, to, amount, items, screenshot, key, encodings);
+    }
+
+    /**
+     * Returns the screenshot encoded with {@code encoder}, which is only done
+     * once per encoder.
+     */
+    public EncodedScreenshot.Encoding encode(ImageEncoder encoder)
+        throws IOException
+    {
+        return encodings.get(encoder);
+    }
 }
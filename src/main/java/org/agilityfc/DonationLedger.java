@@ -0,0 +1,382 @@
+package org.agilityfc;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.agilityfc.util.ImageEncoder;
+import org.agilityfc.util.Journal;
+import org.agilityfc.util.NameIndex;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Every donation that was sent successfully, kept in an append-only file in
+ * the RuneLite directory.
+ * <p>
+ * Entries are indexed by donor and by day, and the totals of the session,
+ * of every day and of every donor are updated on each append, so none of
+ * them ever needs a scan of the entries.
+ */
+@Slf4j
+@Singleton
+public class DonationLedger
+{
+    /// "AFL" followed by the format version.
+    private static final int MAGIC = 0x41464C00;
+    private static final int VERSION = 1;
+
+    private static final byte OP_APPEND = 1;
+
+    @Value
+    public static class Entry
+    {
+        private String from;
+        private String to;
+        private long amount;
+
+        /// Epoch millis at which the donation was made.
+        private long time;
+
+        /// SHA-256 hash of the screenshot as sent, in hex.
+        private String hash;
+
+        /// Id the service gave the donation, or {@code null} if none.
+        private String serverId;
+
+        public LocalDate getDay()
+        {
+            return Instant.ofEpochMilli(time)
+                .atZone(ZoneId.systemDefault())
+                .toLocalDate();
+        }
+    }
+
+    @Value
+    public static class Totals
+    {
+        public static final Totals ZERO = new Totals(0, 0);
+
+        private int count;
+        private long amount;
+
+        Totals plus(Entry e)
+        {
+            return new Totals(count + 1, amount + e.getAmount());
+        }
+    }
+
+    private final ScheduledExecutorService executor;
+
+    private final List<Entry> entries = new ArrayList<>();
+    private final Map<String, List<Entry>> byDonor = new HashMap<>();
+    private final NavigableMap<LocalDate, List<Entry>> byDay = new TreeMap<>();
+
+    private final Map<String, Totals> donorTotals = new HashMap<>();
+    private final NavigableMap<LocalDate, Totals> dayTotals = new TreeMap<>();
+    private Totals total = Totals.ZERO;
+
+    /// Totals of the donations appended since the ledger was started.
+    private Totals session = Totals.ZERO;
+
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+    private boolean loaded;
+
+    /// Entries appended while the file was not open, to be written once it
+    /// is.
+    private final List<Entry> unwritten = new ArrayList<>();
+
+    private final Journal journal =
+        new Journal("ledger.dat", "donation ledger", MAGIC, VERSION);
+
+    @Inject
+    public DonationLedger(ScheduledExecutorService executor)
+    {
+        this.executor = executor;
+    }
+
+    private static void writeEntry(DataOutputStream out, Entry e)
+        throws IOException
+    {
+        out.writeByte(OP_APPEND);
+        out.writeUTF(e.getFrom());
+        out.writeUTF(e.getTo());
+        out.writeLong(e.getAmount());
+        out.writeLong(e.getTime());
+        out.writeUTF(e.getHash() == null ? "" : e.getHash());
+        out.writeUTF(e.getServerId() == null ? "" : e.getServerId());
+    }
+
+    private static Entry readEntry(DataInputStream in) throws IOException
+    {
+        byte op = in.readByte();
+        if (op != OP_APPEND)
+        {
+            throw new IOException("Unknown ledger operation " + op);
+        }
+
+        String from = in.readUTF();
+        String to = in.readUTF();
+        long amount = in.readLong();
+        long time = in.readLong();
+        String hash = in.readUTF();
+        String serverId = in.readUTF();
+
+        return new Entry(from, to, amount, time,
+            hash.isEmpty() ? null : hash,
+            serverId.isEmpty() ? null : serverId);
+    }
+
+    /**
+     * Adds a listener that is called, on no particular thread, whenever
+     * entries are added.
+     */
+    public void addListener(Runnable listener)
+    {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Runnable listener)
+    {
+        listeners.remove(listener);
+    }
+
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    public synchronized Totals total()
+    {
+        return total;
+    }
+
+    public synchronized Totals session()
+    {
+        return session;
+    }
+
+    public synchronized Totals day(LocalDate day)
+    {
+        return dayTotals.getOrDefault(day, Totals.ZERO);
+    }
+
+    public Totals today()
+    {
+        return day(LocalDate.now());
+    }
+
+    public synchronized Totals donor(String name)
+    {
+        return donorTotals.getOrDefault(NameIndex.normalize(name), Totals.ZERO);
+    }
+
+    public synchronized List<Entry> entries(String donor)
+    {
+        return new ArrayList<>(
+            byDonor.getOrDefault(NameIndex.normalize(donor), List.of()));
+    }
+
+    public synchronized List<Entry> entries(LocalDate day)
+    {
+        return new ArrayList<>(byDay.getOrDefault(day, List.of()));
+    }
+
+    public void start()
+    {
+        // NOTE: Reset here rather than once loaded, so that donations sent
+        // while the file loads count towards the session.
+        synchronized (this)
+        {
+            session = Totals.ZERO;
+        }
+
+        executor.execute(() ->
+        {
+            try
+            {
+                load();
+            }
+            catch (IOException e)
+            {
+                log.error("Could not load the donation ledger", e);
+            }
+        });
+    }
+
+    public void stop()
+    {
+        executor.execute(() ->
+        {
+            if (!unwritten.isEmpty())
+            {
+                log.warn("Dropping {} donations the ledger could not write",
+                    unwritten.size());
+            }
+
+            journal.close();
+        });
+    }
+
+    /**
+     * Records a donation sent with {@code encoder}. The screenshot is hashed
+     * in the background, from the encoding the send already made.
+     */
+    public void record(DonationInfo di, ImageEncoder encoder)
+    {
+        record(di, encoder, null);
+    }
+
+    /**
+     * Records a donation that the service acknowledged with
+     * {@code serverId}, which may be {@code null} if it gave none.
+     */
+    public void record(DonationInfo di, ImageEncoder encoder, String serverId)
+    {
+        long time = System.currentTimeMillis();
+        append(di.getFrom(), di.getTo(), di.getAmount(), time,
+            () -> DonationRequest.hash(di.encode(encoder).getData()), serverId);
+    }
+
+    /**
+     * Records a donation sent from the outbox, as of the time it was queued.
+     */
+    public void record(DonationOutbox.Entry e, String serverId)
+    {
+        append(e.getFrom(), e.getTo(), e.getAmount(), e.getTime(),
+            () -> DonationRequest.hash(e.getScreenshot()), serverId);
+    }
+
+    private void append(
+        String from, String to, long amount, long time, Callable<String> hash,
+        String serverId)
+    {
+        executor.execute(() ->
+        {
+            Entry e;
+            try
+            {
+                e = new Entry(from, to, amount, time, hash.call(), serverId);
+            }
+            catch (Exception ex)
+            {
+                log.warn("Could not hash the screenshot of a donation from {}",
+                    from, ex);
+                e = new Entry(from, to, amount, time, null, serverId);
+            }
+
+            synchronized (this)
+            {
+                index(e);
+                session = session.plus(e);
+            }
+
+            listeners.forEach(Runnable::run);
+
+            if (!journal.isOpen())
+            {
+                log.debug("The donation ledger is not open, holding on to "
+                    + "the donation from {}", from);
+                unwritten.add(e);
+                return;
+            }
+
+            Entry entry = e;
+            try
+            {
+                journal.append(out -> writeEntry(out, entry));
+            }
+            catch (IOException ex)
+            {
+                log.warn("Could not record donation from {}", from, ex);
+            }
+        });
+    }
+
+    /**
+     * Adds {@code e} to {@code list}, which is in chronological order. Entries
+     * mostly come in order, so the place is looked for from the end.
+     */
+    private static void insert(List<Entry> list, Entry e)
+    {
+        int i = list.size();
+        while (i > 0 && list.get(i - 1).getTime() > e.getTime()) i--;
+
+        list.add(i, e);
+    }
+
+    /**
+     * Adds {@code e} to the indexes and the totals.
+     */
+    private void index(Entry e)
+    {
+        assert Thread.holdsLock(this);
+
+        String key = NameIndex.normalize(e.getFrom());
+        LocalDate day = e.getDay();
+
+        // NOTE: Donations recorded while the file is replayed are indexed
+        // before its older entries, and those sent from the outbox are dated
+        // when they were queued, so entries do not always come in order.
+        insert(entries, e);
+        insert(byDonor.computeIfAbsent(key, k -> new ArrayList<>()), e);
+        insert(byDay.computeIfAbsent(day, k -> new ArrayList<>()), e);
+
+        donorTotals.merge(key, Totals.ZERO.plus(e), (a, b) -> a.plus(e));
+        dayTotals.merge(day, Totals.ZERO.plus(e), (a, b) -> a.plus(e));
+        total = total.plus(e);
+    }
+
+    private void load() throws IOException
+    {
+        if (!loaded) replay();
+
+        loaded = true;
+        journal.open();
+
+        if (!unwritten.isEmpty())
+        {
+            journal.append(out ->
+            {
+                for (Entry e : unwritten)
+                {
+                    writeEntry(out, e);
+                }
+            });
+            unwritten.clear();
+        }
+
+        listeners.forEach(Runnable::run);
+    }
+
+    private void replay() throws IOException
+    {
+        List<Entry> read = new ArrayList<>();
+
+        // NOTE: The entries of an unreadable file are left in the file that
+        // was moved aside, rather than half counted.
+        if (!journal.replay((in, version) -> read.add(readEntry(in)))) return;
+
+        synchronized (this)
+        {
+            read.forEach(this::index);
+        }
+
+        log.debug("Loaded {} ledger entries", read.size());
+    }
+}
@@ -0,0 +1,705 @@
+package org.agilityfc;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.Response;
+import org.agilityfc.util.DonorDirectory;
+import org.agilityfc.util.Journal;
+import org.agilityfc.util.Metrics;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Durable queue of donations that could not be delivered to the service.
+ * <p>
+ * Entries are kept in an append-only journal in the RuneLite directory, so
+ * they survive a client restart, and are retried by a background drainer with
+ * exponential backoff and jitter. If the journal cannot be opened or written,
+ * entries are still kept and retried, only not across a restart.
+ * <p>
+ * Only transport failures, server errors and rate limiting are retried. An
+ * entry the service rejects outright would be rejected again, so it is parked
+ * in the journal until it is retried or dismissed from the panel.
+ * <p>
+ * The outbox also holds the screenshots of donations that the service
+ * acknowledged without them, until they are uploaded. Those uploads wait for
+ * any donations still to be sent. The send queue {@linkplain #hold holds}
+ * such donations here while it sends them, so that their screenshots are
+ * journaled before the service hears of them.
+ */
+@Slf4j
+@Singleton
+public class DonationOutbox
+{
+    /// "AFC" followed by the format version.
+    private static final int MAGIC = 0x41464300;
+    private static final int VERSION = 6;
+
+    private static final byte OP_ADD = 1;
+    private static final byte OP_REMOVE = 2;
+
+    private static final long MIN_BACKOFF_MS = TimeUnit.SECONDS.toMillis(5);
+    private static final long MAX_BACKOFF_MS = TimeUnit.MINUTES.toMillis(10);
+
+    private static final int MAX_REJECTION_LENGTH = 200;
+
+    /// Bytes of a journaled item: its id, quantity and price.
+    private static final int ITEM_SIZE = 16;
+
+    @Value
+    public static class Entry
+    {
+        private long id;
+
+        /// Idempotency key of the donation, see {@link DonationInfo#getKey()}.
+        private String key;
+
+        /// Epoch millis at which the entry was queued.
+        private long time;
+
+        private String from;
+        private String to;
+        private long amount;
+        private List<DonationInfo.Item> items;
+
+        /// MIME type of the encoded screenshot.
+        private String type;
+
+        /// The encoded screenshot.
+        private byte[] screenshot;
+
+        /// Id the service acknowledged the donation with, if it did. Only
+        /// the screenshot is then left to upload.
+        private String serverId;
+
+        /// Why the service rejected the entry, if it did. Rejected entries are
+        /// not retried until {@link #retry} is called.
+        private String rejection;
+
+        Entry withServerId(String serverId)
+        {
+            return new Entry(id, key, time, from, to, amount, items, type,
+                screenshot, serverId, rejection);
+        }
+
+        Entry withRejection(String rejection)
+        {
+            return new Entry(id, key, time, from, to, amount, items, type,
+                screenshot, serverId, rejection);
+        }
+    }
+
+    @Inject
+    private AgilityFcPlugin plugin;
+
+    @Inject
+    private DonorDirectory donors;
+
+    @Inject
+    private DonationLedger ledger;
+
+    @Inject
+    private Metrics metrics;
+
+    private final Map<Long, Entry> entries = new LinkedHashMap<>();
+
+    /// Ids of the entries the send queue is sending, which the drain leaves
+    /// alone.
+    private final Set<Long> held = new HashSet<>();
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+    private ScheduledExecutorService executor;
+    private final Journal journal =
+        new Journal("outbox.journal", "outbox journal", MAGIC, VERSION);
+    private long nextId;
+    private int failures;
+    private boolean drainScheduled;
+
+    private static void writeEntry(DataOutputStream out, Entry e)
+        throws IOException
+    {
+        out.writeByte(OP_ADD);
+        out.writeLong(e.getId());
+        out.writeUTF(e.getKey());
+        out.writeLong(e.getTime());
+        out.writeUTF(e.getFrom());
+        out.writeUTF(e.getTo());
+        out.writeLong(e.getAmount());
+        out.writeInt(e.getItems().size());
+        for (DonationInfo.Item i : e.getItems())
+        {
+            out.writeInt(i.getId());
+            out.writeInt(i.getQuantity());
+            out.writeLong(i.getPrice());
+        }
+        out.writeUTF(e.getType());
+        out.writeInt(e.getScreenshot().length);
+        out.write(e.getScreenshot());
+        out.writeUTF(e.getServerId() == null ? "" : e.getServerId());
+        out.writeUTF(e.getRejection() == null ? "" : e.getRejection());
+    }
+
+    private static Entry readEntry(Journal.Input in, int version)
+        throws IOException
+    {
+        long id = in.readLong();
+
+        // NOTE: Entries from before idempotency keys get one now, which
+        // sticks since the journal is compacted right after it is replayed.
+        String key = version >= 5 ? in.readUTF() : UUID.randomUUID().toString();
+        long time = in.readLong();
+        String from = in.readUTF();
+        String to = in.readUTF();
+        long amount = in.readLong();
+
+        List<DonationInfo.Item> items = new ArrayList<>();
+        int count = version >= 3 ? in.readCount(ITEM_SIZE) : 0;
+        for (int i = 0; i < count; i++)
+        {
+            items.add(new DonationInfo.Item(
+                in.readInt(), in.readInt(), in.readLong()));
+        }
+
+        String type = version >= 2 ? in.readUTF() : "image/png";
+        byte[] screenshot = new byte[in.readCount(1)];
+        in.readFully(screenshot);
+        String serverId = version >= 4 ? in.readUTF() : "";
+        String rejection = version >= 6 ? in.readUTF() : "";
+
+        return new Entry(id, key, time, from, to, amount, items, type,
+            screenshot, serverId.isEmpty() ? null : serverId,
+            rejection.isEmpty() ? null : rejection);
+    }
+
+    private static long backoff(int failures)
+    {
+        long cap = Math.min(MAX_BACKOFF_MS,
+            MIN_BACKOFF_MS << Math.min(failures - 1, 16));
+
+        // Equal jitter: never retry sooner than half the current window.
+        long half = cap / 2;
+        return half + ThreadLocalRandom.current().nextLong(half + 1);
+    }
+
+    public void start()
+    {
+        ScheduledThreadPoolExecutor stpe = new ScheduledThreadPoolExecutor(1, r ->
+        {
+            Thread t = new Thread(r, "AFC outbox");
+            t.setDaemon(true);
+            return t;
+        });
+
+        // Let queued offers finish on shutdown, but not pending retries.
+        stpe.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        executor = stpe;
+
+        executor.execute(() ->
+        {
+            try
+            {
+                load();
+            }
+            catch (IOException | RuntimeException e)
+            {
+                // NOTE: The drain starts regardless, so that offers made this
+                // session are still delivered.
+                log.error("Could not load the outbox journal", e);
+            }
+
+            scheduleDrain(0);
+        });
+    }
+
+    /**
+     * Stops the drain, and waits until {@code deadline}, in
+     * {@link System#nanoTime()} terms, for the offers already queued.
+     * Whatever is left then finishes in the background.
+     */
+    public void stop(long deadline)
+    {
+        // NOTE: The journal is closed on the outbox's thread, after the
+        // offers queued before it, since it is confined to that thread.
+        executor.execute(journal::close);
+        executor.shutdown();
+
+        try
+        {
+            if (!executor.awaitTermination(
+                deadline - System.nanoTime(), TimeUnit.NANOSECONDS))
+            {
+                log.warn("Stopping with the outbox still busy, "
+                    + "leaving it to finish in the background");
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void addListener(Runnable listener)
+    {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Runnable listener)
+    {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Returns the number of entries waiting to be delivered, not counting
+     * rejected ones or those the send queue is sending.
+     */
+    public synchronized int size()
+    {
+        return (int) entries.values().stream()
+            .filter(e -> e.getRejection() == null && !held.contains(e.getId()))
+            .count();
+    }
+
+    /**
+     * Returns the entries the service rejected, oldest first.
+     */
+    public synchronized List<Entry> rejected()
+    {
+        List<Entry> rejected = new ArrayList<>();
+        for (Entry e : entries.values())
+        {
+            if (e.getRejection() != null) rejected.add(e);
+        }
+
+        return rejected;
+    }
+
+    /**
+     * Queues a rejected entry for delivery again.
+     */
+    public void retry(Entry e)
+    {
+        executor.execute(() ->
+        {
+            synchronized (this)
+            {
+                if (!entries.containsKey(e.getId())) return;
+            }
+
+            append(e.withRejection(null));
+            notifyListeners();
+            scheduleDrain(0);
+        });
+    }
+
+    /**
+     * Drops a rejected entry for good.
+     */
+    public void dismiss(Entry e)
+    {
+        executor.execute(() ->
+        {
+            synchronized (this)
+            {
+                if (!entries.containsKey(e.getId())) return;
+            }
+
+            remove(e);
+            notifyListeners();
+        });
+    }
+
+    /**
+     * Queues a donation for delivery. The screenshot is encoded, unless the
+     * failed send already did so, and written to the journal on the outbox's
+     * own thread.
+     */
+    public void offer(DonationInfo di)
+    {
+        assert di.getFrom() != null;
+        long time = System.currentTimeMillis();
+
+        executor.execute(() ->
+        {
+            try
+            {
+                append(newEntry(di, time));
+            }
+            catch (IOException ex)
+            {
+                log.error("Could not encode the screenshot of a donation", ex);
+                return;
+            }
+
+            notifyListeners();
+            scheduleDrain(0);
+        });
+    }
+
+    /**
+     * Journals a donation that the send queue is about to send without its
+     * screenshot, and leaves it out of the drain until it is
+     * {@linkplain #acknowledge acknowledged}, {@linkplain #release released}
+     * or {@linkplain #drop dropped}. After a restart it is delivered like any
+     * other entry.
+     * <p>
+     * {@code then} is called on the outbox's thread with the journaled entry,
+     * or with null if the screenshot could not be encoded.
+     */
+    public void hold(DonationInfo di, Consumer<Entry> then)
+    {
+        assert di.getFrom() != null;
+        long time = System.currentTimeMillis();
+
+        executor.execute(() ->
+        {
+            Entry e;
+            try
+            {
+                e = newEntry(di, time);
+            }
+            catch (IOException ex)
+            {
+                log.error("Could not encode the screenshot of a donation", ex);
+                then.accept(null);
+                return;
+            }
+
+            synchronized (this)
+            {
+                held.add(e.getId());
+            }
+
+            append(e);
+            then.accept(e);
+        });
+    }
+
+    /**
+     * Replaces a held entry that the service acknowledged with
+     * {@code serverId} by the upload of its screenshot.
+     */
+    public void acknowledge(Entry e, String serverId)
+    {
+        assert serverId != null;
+
+        executor.execute(() ->
+        {
+            synchronized (this)
+            {
+                held.remove(e.getId());
+            }
+
+            // NOTE: Replaced under the same id, in a single record, as the
+            // drain does.
+            append(e.withServerId(serverId));
+            notifyListeners();
+            scheduleDrain(0);
+        });
+    }
+
+    /**
+     * Hands a held entry whose send failed to the drain.
+     */
+    public void release(Entry e)
+    {
+        executor.execute(() ->
+        {
+            synchronized (this)
+            {
+                held.remove(e.getId());
+            }
+
+            notifyListeners();
+            scheduleDrain(0);
+        });
+    }
+
+    /**
+     * Drops a held entry whose send was cancelled.
+     */
+    public void drop(Entry e)
+    {
+        executor.execute(() ->
+        {
+            synchronized (this)
+            {
+                held.remove(e.getId());
+                if (!entries.containsKey(e.getId())) return;
+            }
+
+            remove(e);
+            notifyListeners();
+        });
+    }
+
+    private Entry newEntry(DonationInfo di, long time)
+        throws IOException
+    {
+        EncodedScreenshot.Encoding screenshot = di.encode(plugin.getEncoder());
+
+        synchronized (this)
+        {
+            return new Entry(nextId++, di.getKey(), time,
+                di.getFrom(), di.getTo(), di.getAmount(), di.getItems(),
+                screenshot.getType(), screenshot.getData(), null, null);
+        }
+    }
+
+    private void notifyListeners()
+    {
+        listeners.forEach(Runnable::run);
+    }
+
+    private void load() throws IOException
+    {
+        // NOTE: Entries read before an unreadable record are kept, as they
+        // are still to be delivered.
+        journal.replay(this::readRecord);
+        compact();
+        notifyListeners();
+    }
+
+    private void readRecord(Journal.Input in, int version) throws IOException
+    {
+        byte op = in.readByte();
+
+        if (op == OP_ADD)
+        {
+            Entry e = readEntry(in, version);
+
+            synchronized (this)
+            {
+                entries.put(e.getId(), e);
+                nextId = Math.max(nextId, e.getId() + 1);
+            }
+        }
+        else if (op == OP_REMOVE)
+        {
+            long id = in.readLong();
+
+            synchronized (this)
+            {
+                entries.remove(id);
+            }
+        }
+        else
+        {
+            throw new IOException("Bad outbox journal record: " + op);
+        }
+    }
+
+    /**
+     * Rewrites the journal so that it only contains the live entries and
+     * reopens it for appending.
+     */
+    private void compact() throws IOException
+    {
+        List<Entry> live;
+        synchronized (this)
+        {
+            live = new ArrayList<>(entries.values());
+        }
+
+        journal.rewrite(out ->
+        {
+            for (Entry e : live)
+            {
+                writeEntry(out, e);
+            }
+        });
+    }
+
+    /**
+     * Adds or replaces an entry, and journals it if the journal is open. An
+     * entry that could not be journaled is still delivered, but is lost if the
+     * client exits first.
+     */
+    private void append(Entry e)
+    {
+        synchronized (this)
+        {
+            entries.put(e.getId(), e);
+        }
+
+        if (!journal.isOpen())
+        {
+            log.warn("The outbox journal is not open, keeping entry {} "
+                + "in memory only", e.getId());
+            return;
+        }
+
+        try
+        {
+            journal.append(out -> writeEntry(out, e));
+            journal.sync();
+        }
+        catch (IOException ex)
+        {
+            log.error("Could not journal outbox entry {}", e.getId(), ex);
+
+            // NOTE: The journal may now end in a partial record, which
+            // replay would drop along with everything appended after it.
+            journal.close();
+        }
+    }
+
+    private void remove(Entry e)
+    {
+        boolean empty;
+        synchronized (this)
+        {
+            entries.remove(e.getId());
+            empty = entries.isEmpty();
+        }
+
+        try
+        {
+            // NOTE: An empty outbox is also the chance to reopen a journal
+            // that could not be loaded or written.
+            if (empty)
+            {
+                compact();
+            }
+            else if (journal.isOpen())
+            {
+                journal.append(out ->
+                {
+                    out.writeByte(OP_REMOVE);
+                    out.writeLong(e.getId());
+                });
+                journal.sync();
+            }
+        }
+        catch (IOException ex)
+        {
+            log.error("Could not update the outbox journal", ex);
+            journal.close();
+        }
+    }
+
+    private void scheduleDrain(long delayMs)
+    {
+        if (drainScheduled || executor.isShutdown()) return;
+
+        drainScheduled = true;
+        executor.schedule(this::drain, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the entry to deliver next: the oldest donation, or if there is
+     * none, the oldest screenshot upload. Rejected and held entries are
+     * skipped.
+     */
+    private synchronized Entry next()
+    {
+        Entry upload = null;
+        for (Entry e : entries.values())
+        {
+            if (e.getRejection() != null || held.contains(e.getId())) continue;
+            if (e.getServerId() == null) return e;
+            if (upload == null) upload = e;
+        }
+
+        return upload;
+    }
+
+    private void drain()
+    {
+        drainScheduled = false;
+
+        Entry e = next();
+        if (e == null) return;
+
+        boolean upload = e.getServerId() != null;
+        boolean metadata = !upload && plugin.isDeferred();
+        String serverId = null;
+        String rejection = null;
+
+        // NOTE: Building the call fails on an invalid URL, which must back
+        // off like any other failure, or the drain would stop for good.
+        long start = System.nanoTime();
+        try (Response r = plugin.makeCall(e, metadata).execute())
+        {
+            if (!r.isSuccessful())
+            {
+                String message = String.format("%s, \"%s\"",
+                    r.code(), r.body().string());
+
+                if (DonationRequest.isRetryable(r.code()))
+                {
+                    throw new IOException("Unexpected response: " + message);
+                }
+
+                rejection = message.length() > MAX_REJECTION_LENGTH
+                    ? message.substring(0, MAX_REJECTION_LENGTH) + "\u2026"
+                    : message;
+            }
+            else if (metadata)
+            {
+                serverId = plugin.donationId(r);
+            }
+        }
+        catch (IOException | RuntimeException ex)
+        {
+            metrics.increment(Metrics.OUTBOX_RETRIES);
+            failures++;
+            long delay = backoff(failures);
+
+            log.warn("Could not send queued donation {}, retrying in {} ms",
+                e.getId(), delay, ex);
+            scheduleDrain(delay);
+            return;
+        }
+
+        failures = 0;
+
+        if (rejection != null)
+        {
+            log.error("Queued donation {} was rejected: {}", e.getId(),
+                rejection);
+            metrics.increment(Metrics.REJECTIONS);
+
+            append(e.withRejection(rejection));
+            notifyListeners();
+            scheduleDrain(0);
+            return;
+        }
+
+        if (upload)
+        {
+            log.info("Uploaded the screenshot of donation {}", e.getServerId());
+        }
+        else
+        {
+            metrics.record(Metrics.SEND, start);
+            log.info("Sent queued donation {} from {}", e.getId(), e.getFrom());
+            donors.record(e.getFrom());
+            ledger.record(e, serverId);
+        }
+
+        // NOTE: An acknowledged donation is replaced by its upload under the
+        // same id, in a single record, so that its screenshot is never
+        // missing from the journal.
+        if (serverId != null) append(e.withServerId(serverId));
+        else remove(e);
+
+        notifyListeners();
+        scheduleDrain(0);
+    }
+}
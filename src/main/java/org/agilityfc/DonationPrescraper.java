@@ -0,0 +1,148 @@
+package org.agilityfc;
+
+import lombok.extern.slf4j.Slf4j;
+import net.runelite.api.events.BeforeRender;
+import net.runelite.api.events.GameTick;
+import net.runelite.api.events.ItemContainerChanged;
+import net.runelite.api.events.VarbitChanged;
+import net.runelite.api.events.WidgetClosed;
+import net.runelite.api.events.WidgetLoaded;
+import net.runelite.client.eventbus.Subscribe;
+import org.agilityfc.util.ClientUtil;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.Objects;
+
+/**
+ * Scrapes donation interfaces ahead of time, whenever one is opened or its
+ * contents change, so that pressing "Scrape" can publish the result without
+ * waiting for the client thread or a frame.
+ */
+@Slf4j
+@Singleton
+public class DonationPrescraper
+{
+    @Inject
+    private DonationScraper scraper;
+
+    @Inject
+    private ClientUtil clientUtil;
+
+    @Inject
+    private Thumbnails thumbnails;
+
+    /// Whether a donation interface may be open.
+    private boolean active;
+
+    /// Whether the open interface may have changed since the last scrape.
+    private boolean dirty;
+
+    /// Bumped whenever the prepared donation is invalidated, so that late
+    /// captures are dropped.
+    private volatile int generation;
+
+    private DonationScraper.Scrape lastScrape;
+    private volatile DonationInfo prepared;
+
+    /**
+     * Returns the donation prepared for the open interface, if any.
+     */
+    public DonationInfo prepared()
+    {
+        return prepared;
+    }
+
+    public void clear()
+    {
+        generation++;
+        prepared = null;
+        lastScrape = null;
+        dirty = false;
+        active = false;
+    }
+
+    @Subscribe
+    public void onWidgetLoaded(WidgetLoaded e)
+    {
+        if (!scraper.isDonationGroup(e.getGroupId())) return;
+
+        active = true;
+        dirty = true;
+    }
+
+    @Subscribe
+    public void onWidgetClosed(WidgetClosed e)
+    {
+        if (!scraper.isDonationGroup(e.getGroupId())) return;
+
+        generation++;
+        prepared = null;
+        lastScrape = null;
+
+        // NOTE: Another donation interface may still be open, e.g. when the
+        // trade screens are swapped, so check on the next frame.
+        dirty = true;
+    }
+
+    @Subscribe
+    public void onItemContainerChanged(ItemContainerChanged e)
+    {
+        if (active) dirty = true;
+    }
+
+    @Subscribe
+    public void onVarbitChanged(VarbitChanged e)
+    {
+        if (active) dirty = true;
+    }
+
+    @Subscribe
+    public void onGameTick(GameTick e)
+    {
+        // Catch text updates that are not accompanied by any event, at most
+        // a tick late.
+        if (active) dirty = true;
+    }
+
+    @Subscribe
+    public void onBeforeRender(BeforeRender e)
+    {
+        if (!dirty) return;
+        dirty = false;
+
+        DonationScraper.Scrape s = scraper.extract();
+        if (s == null)
+        {
+            active = false;
+            return;
+        }
+
+        if (!s.isValued()) return;
+
+        if (Objects.equals(s, lastScrape) && prepared != null) return;
+        lastScrape = s;
+
+        int gen = generation;
+        clientUtil.captureRegion(s.getBounds()).whenComplete((img, ex) ->
+        {
+            if (ex != null)
+            {
+                log.debug("Could not capture donation interface", ex);
+                return;
+            }
+
+            if (gen != generation) return;
+
+            try
+            {
+                prepared = s.toDonationInfo(img);
+                thumbnails.render(img);
+            }
+            catch (NumberFormatException ex2)
+            {
+                log.debug("Could not parse donation value", ex2);
+            }
+        });
+    }
+}
@@ -0,0 +1,117 @@
+package org.agilityfc;
+
+import lombok.extern.slf4j.Slf4j;
+import net.runelite.api.events.GameTick;
+import net.runelite.client.eventbus.Subscribe;
+import org.agilityfc.util.ClientUtil;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.awt.image.BufferedImage;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a bounded ring of recent snapshots of whichever donation interface is
+ * open, so that a donation can still be scraped shortly after the interface
+ * has closed.
+ * <p>
+ * A snapshot is taken once per game tick: the interface's text is scraped on
+ * the client thread and only its region of the next frame is kept.
+ */
+@Slf4j
+@Singleton
+public class DonationRecorder
+{
+    /// How long a snapshot can be scraped after its interface was closed.
+    private static final long RETENTION_MS = TimeUnit.SECONDS.toMillis(10);
+
+    private static class Snapshot
+    {
+        final DonationInfo di;
+        final long time;
+        final long bytes;
+
+        Snapshot(DonationInfo di, long time)
+        {
+            BufferedImage img = di.getScreenshot();
+
+            this.di = di;
+            this.time = time;
+            this.bytes = 4L * img.getWidth() * img.getHeight();
+        }
+    }
+
+    @Inject
+    private AgilityFcConfig config;
+
+    @Inject
+    private DonationScraper scraper;
+
+    @Inject
+    private ClientUtil clientUtil;
+
+    private final Deque<Snapshot> ring = new ArrayDeque<>();
+    private long bytes;
+
+    /**
+     * Returns the most recent snapshot, unless its interface has been closed
+     * for too long.
+     */
+    public synchronized DonationInfo latest()
+    {
+        Snapshot s = ring.peekLast();
+        if (s == null || System.currentTimeMillis() - s.time > RETENTION_MS)
+        {
+            return null;
+        }
+
+        return s.di;
+    }
+
+    public synchronized void clear()
+    {
+        ring.clear();
+        bytes = 0;
+    }
+
+    private synchronized void add(Snapshot s)
+    {
+        long budget = config.retroCaptureBudget() * 1024L * 1024L;
+
+        ring.addLast(s);
+        bytes += s.bytes;
+
+        // NOTE: Always keep the newest snapshot, even if it alone is over
+        // the budget.
+        while (bytes > budget && ring.size() > 1)
+        {
+            bytes -= ring.removeFirst().bytes;
+        }
+    }
+
+    @Subscribe
+    public void onGameTick(GameTick e)
+    {
+        if (!config.retroCapture())
+        {
+            clear();
+            return;
+        }
+
+        DonationScraper.Scrape s = scraper.extract();
+        if (s == null || s.getValue() == null) return;
+
+        clientUtil.captureRegion(s.getBounds()).whenComplete((img, ex) ->
+        {
+            if (ex != null)
+            {
+                log.debug("Could not capture donation interface", ex);
+                return;
+            }
+
+            add(new Snapshot(s.toDonationInfo(img), System.currentTimeMillis()));
+        });
+    }
+}
@@ -1,50 +1,283 @@
 package org.agilityfc;
 
+import com.google.common.hash.Hashing;
+import okhttp3.HttpUrl;
 import okhttp3.MediaType;
 import okhttp3.MultipartBody;
 import okhttp3.Request;
 import okhttp3.RequestBody;
+import org.agilityfc.util.ImageEncoder;
 
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.util.List;
 
+/**
+ * Builds the requests to the donation service.
+ * <p>
+ * The service answers every request it accepts with a 2xx status, so callers
+ * check {@link okhttp3.Response#isSuccessful()} rather than a specific code.
+ * The one exception is the check whether a screenshot exists, which tells 200
+ * from 404. Of the other statuses, only server errors and rate limiting are
+ * worth retrying, see {@link #isRetryable}.
+ */
 public class DonationRequest
 {
-    private static final MediaType MEDIA_TYPE = MediaType.parse("image/png");
-    private static final String FILENAME = "screenshot.png";
+    private static final String FILENAME = "screenshot";
+    private static final String BATCH_PATH = "batch";
+    private static final String FORMATS_PATH = "formats";
+    private static final String BLOBS_PATH = "blobs";
+    private static final String DONATIONS_PATH = "donations";
+    private static final String SCREENSHOT_PATH = "screenshot";
 
-    private static RequestBody screenshot(BufferedImage img)
+    /// Header carrying {@link DonationInfo#getKey()}, under which the service
+    /// drops repeated submissions of a donation.
+    private static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+
+    private static final MediaType JSON = MediaType.parse("application/json");
+
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    /**
+     * Returns whether a request that failed with {@code code} may succeed
+     * when sent again. Any other failure is a rejection of the request
+     * itself.
+     */
+    public static boolean isRetryable(int code)
+    {
+        return code >= 500 || code == TOO_MANY_REQUESTS;
+    }
+
+    private static RequestBody screenshot(DonationInfo di, ImageEncoder encoder)
     {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        return new ImageRequestBody(di, encoder);
+    }
+
+    private static RequestBody screenshot(byte[] data, String type)
+    {
+        return RequestBody.create(MediaType.parse(type), data);
+    }
 
-        try
+    private static String filename(RequestBody screenshot)
+    {
+        MediaType type = screenshot.contentType();
+        return type == null ? FILENAME : FILENAME + "." + type.subtype();
+    }
+
+    /**
+     * Returns the items as a JSON array of objects with an {@code id}, a
+     * {@code quantity} and the {@code price} of a single item.
+     */
+    static String items(List<DonationInfo.Item> items)
+    {
+        StringBuilder sb = new StringBuilder("[");
+        for (DonationInfo.Item i : items)
         {
-            ImageIO.write(img, "png", baos);
+            if (sb.length() > 1) sb.append(',');
+            sb.append("{\"id\":").append(i.getId())
+                .append(",\"quantity\":").append(i.getQuantity())
+                .append(",\"price\":").append(i.getPrice())
+                .append('}');
         }
-        catch (IOException e)
+
+        return sb.append(']').toString();
+    }
+
+    /**
+     * Adds the donation's fields, each name suffixed with {@code suffix}. The
+     * items are only added if they are known.
+     */
+    private static MultipartBody.Builder addFields(
+        MultipartBody.Builder b, String suffix,
+        String from, String to, long amount, List<DonationInfo.Item> items)
+    {
+        b.addFormDataPart("from" + suffix, from)
+            .addFormDataPart("to" + suffix, to)
+            .addFormDataPart("amount" + suffix, Long.toString(amount));
+
+        if (!items.isEmpty())
         {
-            throw new RuntimeException(e);
+            b.addFormDataPart("items" + suffix, null,
+                RequestBody.create(JSON, items(items)));
         }
 
-        return RequestBody.create(MEDIA_TYPE, baos.toByteArray());
+        return b;
     }
 
-    private static MultipartBody body(DonationInfo di)
+    private static MultipartBody body(
+        String from, String to, long amount, List<DonationInfo.Item> items,
+        RequestBody screenshot)
     {
-        return new MultipartBody.Builder()
-            .setType(MultipartBody.FORM)
-            .addFormDataPart("from", di.getFrom())
-            .addFormDataPart("to", di.getTo())
-            .addFormDataPart("amount", Integer.toString(di.getAmount()))
-            .addFormDataPart("screenshot", FILENAME, screenshot(di.getScreenshot()))
+        return addFields(new MultipartBody.Builder().setType(MultipartBody.FORM),
+                "", from, to, amount, items)
+            .addFormDataPart("screenshot", filename(screenshot), screenshot)
             .build();
     }
 
-    public static Request.Builder builder(DonationInfo di)
+    private static MultipartBody batchBody(
+        List<DonationInfo> dis, ImageEncoder encoder)
+    {
+        MultipartBody.Builder b = new MultipartBody.Builder()
+            .setType(MultipartBody.FORM)
+            .addFormDataPart("count", Integer.toString(dis.size()));
+
+        for (int i = 0; i < dis.size(); i++)
+        {
+            DonationInfo di = dis.get(i);
+            assert di.getFrom() != null;
+
+            String suffix = "[" + i + "]";
+            RequestBody screenshot = screenshot(di, encoder);
+
+            addFields(b, suffix,
+                    di.getFrom(), di.getTo(), di.getAmount(), di.getItems())
+                .addFormDataPart("key" + suffix, di.getKey())
+                .addFormDataPart("screenshot" + suffix,
+                    i + "-" + filename(screenshot), screenshot);
+        }
+
+        return b.build();
+    }
+
+    public static Request.Builder builder(DonationInfo di, ImageEncoder encoder)
     {
         assert di != null && di.getFrom() != null;
-        return new Request.Builder().post(body(di));
+        return new Request.Builder()
+            .header(IDEMPOTENCY_KEY, di.getKey())
+            .post(body(
+                di.getFrom(), di.getTo(), di.getAmount(), di.getItems(),
+                screenshot(di, encoder)));
+    }
+
+    public static Request.Builder builder(DonationOutbox.Entry e)
+    {
+        return new Request.Builder()
+            .header(IDEMPOTENCY_KEY, e.getKey())
+            .post(body(
+                e.getFrom(), e.getTo(), e.getAmount(), e.getItems(),
+                screenshot(e.getScreenshot(), e.getType())));
+    }
+
+    /**
+     * Builds a request that submits a donation whose screenshot was already
+     * uploaded, referring to it by its hash instead of including it.
+     */
+    public static Request byHash(
+        String key, String from, String to, long amount,
+        List<DonationInfo.Item> items, String hash, String type, String url)
+    {
+        return new Request.Builder()
+            .url(resolve(url))
+            .header(IDEMPOTENCY_KEY, key)
+            .post(addFields(
+                    new MultipartBody.Builder().setType(MultipartBody.FORM),
+                    "", from, to, amount, items)
+                .addFormDataPart("screenshot_hash", hash)
+                .addFormDataPart("screenshot_type", type)
+                .build())
+            .build();
+    }
+
+    /**
+     * Builds a request that submits a donation without its screenshot,
+     * answered with {@code {"id": "..."}}. The screenshot is uploaded later
+     * with {@link #screenshotUpload}, under that id.
+     */
+    public static Request metadata(
+        String key, String from, String to, long amount,
+        List<DonationInfo.Item> items, String url)
+    {
+        return new Request.Builder()
+            .url(resolve(url, DONATIONS_PATH))
+            .header(IDEMPOTENCY_KEY, key)
+            .post(addFields(
+                    new MultipartBody.Builder().setType(MultipartBody.FORM),
+                    "", from, to, amount, items)
+                .build())
+            .build();
+    }
+
+    public static Request screenshotUpload(
+        String id, byte[] data, String type, String url)
+    {
+        return new Request.Builder()
+            .url(resolve(url, DONATIONS_PATH, id, SCREENSHOT_PATH))
+            .put(screenshot(data, type))
+            .build();
+    }
+
+    /**
+     * Returns the SHA-256 hash of an encoded screenshot, in hex, under which
+     * the service stores it.
+     */
+    public static String hash(byte[] data)
+    {
+        return Hashing.sha256().hashBytes(data).toString();
+    }
+
+    /**
+     * Builds a request that checks whether the service already has the
+     * screenshot with the given hash, answered with 200 or 404.
+     */
+    public static Request blobExists(String hash, String url)
+    {
+        return new Request.Builder()
+            .url(resolve(url, BLOBS_PATH, hash))
+            .head()
+            .build();
+    }
+
+    public static Request blobUpload(
+        String hash, byte[] data, String type, String url)
+    {
+        return new Request.Builder()
+            .url(resolve(url, BLOBS_PATH, hash))
+            .put(screenshot(data, type))
+            .build();
+    }
+
+    private static HttpUrl resolve(String url, String... path)
+    {
+        HttpUrl base = HttpUrl.parse(url);
+        if (base == null)
+        {
+            throw new IllegalArgumentException("Invalid URL: " + url);
+        }
+
+        HttpUrl.Builder b = base.newBuilder();
+        for (String p : path)
+        {
+            b.addPathSegment(p);
+        }
+
+        return b.build();
+    }
+
+    /**
+     * Builds a request for the list of image formats the service accepts,
+     * answered as {@code {"formats": ["image/png", ...], "blobs": true,
+     * "deferred": true}}, where {@code blobs} announces support for uploads
+     * by hash and {@code deferred} for screenshots uploaded after their
+     * donation.
+     */
+    public static Request formats(String url)
+    {
+        return new Request.Builder()
+            .url(resolve(url, FORMATS_PATH))
+            .get()
+            .build();
+    }
+
+    /**
+     * Builds a request that submits several donations at once. Every field is
+     * suffixed with the donation's index, e.g. {@code from[0]}, and the
+     * request is posted to the {@code batch} endpoint below {@code url}. The
+     * idempotency key of each donation is sent as its {@code key} field.
+     */
+    public static Request batch(
+        List<DonationInfo> dis, ImageEncoder encoder, String url)
+    {
+        return new Request.Builder()
+            .url(resolve(url, BATCH_PATH))
+            .post(batchBody(dis, encoder))
+            .build();
     }
 }
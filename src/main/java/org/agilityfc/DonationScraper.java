@@ -1,24 +1,44 @@
 package org.agilityfc;
 
+import lombok.SneakyThrows;
+import lombok.Value;
 import net.runelite.api.Client;
+import net.runelite.api.Item;
+import net.runelite.api.ItemContainer;
 import net.runelite.api.Player;
 import net.runelite.api.gameval.InterfaceID;
+import net.runelite.api.gameval.InventoryID;
 import net.runelite.api.widgets.Widget;
 import net.runelite.client.util.Text;
 import org.agilityfc.util.ClientUtil;
-import org.apache.commons.lang3.tuple.ImmutablePair;
-import org.apache.commons.lang3.tuple.ImmutableTriple;
+import org.agilityfc.util.ItemPrices;
+import org.agilityfc.util.Metrics;
 
 import javax.inject.Inject;
-import java.awt.Dimension;
+import javax.inject.Singleton;
 import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.function.BiFunction;
-import java.util.function.Supplier;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+/**
+ * Table-driven scraper for donation interfaces.
+ * <p>
+ * Every registered interface is checked in a single client thread invocation,
+ * and only the text of the first open one is extracted. If the interface is
+ * backed by an item container, the donated items are read from it and priced,
+ * and their total is the amount, rather than the text.
+ */
+@Singleton
 public class DonationScraper
 {
     private static final Pattern TRADE_OPPONENT_PAT =
@@ -28,12 +48,103 @@ public class DonationScraper
     private static final Pattern PRICE_CHECK_VALUE_PAT =
         Pattern.compile("(?i)total guide price: ?(.+)");
 
+    /// The client keeps the other player's side of a trade under the id of
+    /// the own side with this bit set.
+    private static final int OTHER_SIDE = 0x8000;
+
+    /**
+     * Describes where a donation interface shows the values to scrape.
+     */
+    @Value
+    public static class Spec
+    {
+        /// The interface's root widget, whose bounds are the screenshot.
+        private int containerId;
+
+        /// Widget showing the donor's name, or -1 if it is not shown.
+        private int opponentId;
+        private Pattern opponentPat;
+
+        /// Widget showing the donated value.
+        private int valueId;
+        private Pattern valuePat;
+
+        /// Item container holding the donated items, or -1 if there is none.
+        private int itemContainerId;
+
+        public Spec(
+            int containerId,
+            int opponentId, Pattern opponentPat,
+            int valueId, Pattern valuePat,
+            int itemContainerId)
+        {
+            this.containerId = containerId;
+            this.opponentId = opponentId;
+            this.opponentPat = opponentPat;
+            this.valueId = valueId;
+            this.valuePat = valuePat;
+            this.itemContainerId = itemContainerId;
+        }
+
+        public Spec(
+            int containerId,
+            int opponentId, Pattern opponentPat,
+            int valueId, Pattern valuePat)
+        {
+            this(containerId, opponentId, opponentPat, valueId, valuePat, -1);
+        }
+
+        public Spec(int containerId, int valueId, Pattern valuePat, int itemContainerId)
+        {
+            this(containerId, -1, null, valueId, valuePat, itemContainerId);
+        }
+
+        public Spec(int containerId, int valueId, Pattern valuePat)
+        {
+            this(containerId, valueId, valuePat, -1);
+        }
+    }
+
+    public static final Spec TRADE_MAIN = new Spec(
+        InterfaceID.Trademain.UNIVERSE,
+        InterfaceID.Trademain.TITLE, TRADE_OPPONENT_PAT,
+        InterfaceID.Trademain.OTHER_OFFER_HEADER, TRADE_VALUE_PAT,
+        InventoryID.TRADEOFFER | OTHER_SIDE);
+
+    public static final Spec TRADE_CONFIRM = new Spec(
+        InterfaceID.Tradeconfirm.UNIVERSE,
+        InterfaceID.Tradeconfirm.TRADEOPPONENT, TRADE_OPPONENT_PAT,
+        InterfaceID.Tradeconfirm.YOU_WILL_RECEIVE, TRADE_VALUE_PAT,
+        InventoryID.TRADEOFFER | OTHER_SIDE);
+
+    public static final Spec PRICE_CHECK = new Spec(
+        InterfaceID.GePricechecker.UNIVERSE,
+        InterfaceID.GePricechecker.OUTPUT, PRICE_CHECK_VALUE_PAT,
+        InventoryID.TRADEOFFER);
+
+    public static final Spec LOOTING_BAG = new Spec(
+        InterfaceID.WildernessLootingbag.UNIVERSE,
+        InterfaceID.WildernessLootingbag.TOTAL, TRADE_VALUE_PAT,
+        InventoryID.LOOTING_BAG);
+
+    private static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(5);
+
     @Inject
     private Client client;
 
     @Inject
     private ClientUtil clientUtil;
 
+    @Inject
+    private ItemPrices prices;
+
+    @Inject
+    private Metrics metrics;
+
+    /// Interfaces in order of priority.
+    private final List<Spec> specs = new CopyOnWriteArrayList<>(List.of(
+        TRADE_MAIN, TRADE_CONFIRM, PRICE_CHECK, LOOTING_BAG));
+
     private static String findWidgetText(Widget w, Pattern pat)
     {
         String text = w.getText();
@@ -43,130 +154,279 @@ public class DonationScraper
         return m.find() ? m.group(1) : null;
     }
 
-    private static int parseValue(String value)
+    private static long parseValue(String value)
+    {
+        return Long.parseLong(value.replace(",", ""));
+    }
+
+    /**
+     * Text and items scraped from a donation interface, before the screenshot
+     * is taken.
+     */
+    @Value
+    static class Scrape
+    {
+        /// Display name of the donor, if the interface shows it.
+        private String from;
+
+        private String to;
+        private String value;
+
+        /// The priced items, or {@code null} if the interface has no item
+        /// container.
+        private List<DonationInfo.Item> items;
+
+        /// Bounds of the interface, to take the screenshot of.
+        private Rectangle bounds;
+
+        /**
+         * Returns whether the amount is known, from the items or the text.
+         */
+        boolean isValued()
+        {
+            return items != null || value != null;
+        }
+
+        long getAmount()
+        {
+            if (items == null) return parseValue(value);
+
+            long amount = 0;
+            for (DonationInfo.Item i : items)
+            {
+                amount += i.getValue();
+            }
+
+            return amount;
+        }
+
+        DonationInfo toDonationInfo(BufferedImage screenshot)
+        {
+            return new DonationInfo(from, to, getAmount(),
+                items == null ? List.of() : items, screenshot);
+        }
+    }
+
+    /**
+     * Registers a further donation interface, checked after the existing
+     * ones.
+     */
+    public void register(Spec spec)
+    {
+        specs.add(spec);
+    }
+
+    /**
+     * Returns whether the given widget group belongs to a registered
+     * interface.
+     */
+    public boolean isDonationGroup(int groupId)
     {
-        return Integer.parseInt(value.replaceAll(",", ""));
+        for (Spec spec : specs)
+        {
+            if (spec.getContainerId() >>> 16 == groupId) return true;
+        }
+
+        return false;
     }
 
-    private static Rectangle scaleBounds(
-        Rectangle bounds, double scaleX, double scaleY)
+    private String extractText(int id, Pattern pat)
     {
-        return new Rectangle(
-            (int) (scaleX * bounds.x),
-            (int) (scaleY * bounds.y),
-            (int) (scaleX * bounds.width),
-            (int) (scaleY * bounds.height));
+        Widget w = client.getWidget(id);
+        assert w != null && !w.isHidden();
+
+        String text = findWidgetText(w, pat);
+        assert text != null;
+
+        return text;
     }
 
-    private BufferedImage cropScreenshot(BufferedImage img, Rectangle bounds)
+    private List<DonationInfo.Item> extractItems(int id)
     {
-        if (client.isStretchedEnabled())
+        ItemContainer c = client.getItemContainer(id);
+        if (c == null) return null;
+
+        List<DonationInfo.Item> items = new ArrayList<>();
+        for (Item i : c.getItems())
         {
-            Dimension real = client.getRealDimensions();
-            Dimension stretched = client.getStretchedDimensions();
+            // NOTE: Empty slots are kept as items with id -1.
+            if (i.getId() < 0 || i.getQuantity() <= 0) continue;
 
-            bounds = scaleBounds(
-                bounds,
-                stretched.getWidth() / real.getWidth(),
-                stretched.getHeight() / real.getHeight());
+            items.add(new DonationInfo.Item(prices.canonicalize(i.getId()),
+                i.getQuantity(), prices.price(i.getId())));
         }
 
-        return img.getSubimage(bounds.x, bounds.y, bounds.width, bounds.height);
+        return items;
     }
 
-    public DonationInfo scrapeDonation(
-        int containerId,
-        int opponentId, Pattern opponentPat,
-        int valueId, Pattern valuePat)
+    private Scrape extract(Player p, Widget w, Spec spec)
     {
-        assert !client.isClientThread();
+        return new Scrape(
+            spec.getOpponentId() != -1
+                ? extractText(spec.getOpponentId(), spec.getOpponentPat())
+                : null,
+            p.getName(),
+            extractText(spec.getValueId(), spec.getValuePat()),
+            spec.getItemContainerId() != -1
+                ? extractItems(spec.getItemContainerId())
+                : null,
+            w.getBounds());
+    }
+
+    /**
+     * Scrapes the text of the first open interface out of {@code specs}. Must
+     * be called on the client thread.
+     */
+    private Scrape extract(List<Spec> specs)
+    {
+        assert client.isClientThread();
 
-        var t = clientUtil.runOnClientThread(() ->
+        Player p = client.getLocalPlayer();
+        if (p == null) return null;
+
+        for (Spec spec : specs)
         {
-            Player p = client.getLocalPlayer();
-            if (p == null) return null;
+            Widget w = client.getWidget(spec.getContainerId());
+            if (w != null && !w.isHidden()) return extract(p, w, spec);
+        }
+
+        return null;
+    }
+
+    /**
+     * Scrapes the text of whichever registered interface is open. Must be
+     * called on the client thread.
+     */
+    Scrape extract()
+    {
+        return extract(specs);
+    }
+
+    /**
+     * Scrapes the first open interface out of {@code specs} and captures it.
+     * <p>
+     * Cancelling the returned future, or its timing out, also cancels the
+     * client thread invocation or frame capture it is waiting on, so neither
+     * runs once nobody wants the result.
+     */
+    private CompletableFuture<DonationInfo> scrapeAsync(
+        List<Spec> specs, Duration timeout)
+    {
+        long start = System.nanoTime();
+        long deadline = start + timeout.toNanos();
+
+        CompletableFuture<DonationInfo> result = new CompletableFuture<>();
+        AtomicReference<CompletableFuture<BufferedImage>> capture =
+            new AtomicReference<>();
+
+        CompletableFuture<Scrape> extracted =
+            clientUtil.runOnClientThreadAsync(() -> extract(specs), timeout);
+
+        extracted
+            .thenCompose(s ->
+            {
+                if (s == null || result.isDone())
+                {
+                    return CompletableFuture.completedFuture(null);
+                }
+
+                CompletableFuture<BufferedImage> c = clientUtil.captureRegion(
+                    s.getBounds(),
+                    Duration.ofNanos(Math.max(0, deadline - System.nanoTime())));
+                capture.set(c);
 
-            Widget w = client.getWidget(containerId);
-            if (w == null || w.isHidden()) return null;
+                // NOTE: The result may have been cancelled before the capture
+                // was published above.
+                if (result.isDone()) c.cancel(false);
 
-            BiFunction<Integer, Pattern, String> extract = (id, pat) ->
+                return c.thenApply(s::toDonationInfo);
+            })
+            .whenComplete((di, e) ->
             {
-                Widget w2 = client.getWidget(id);
-                assert w2 != null && !w2.isHidden();
+                if (e == null) result.complete(di);
+                else result.completeExceptionally(e);
+            });
 
-                String name = findWidgetText(w2, pat);
-                assert name != null;
+        result.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        result.whenComplete((di, e) ->
+        {
+            if (e == null)
+            {
+                metrics.record(Metrics.SCRAPE, start);
+                return;
+            }
+
+            if (!(e instanceof CancellationException))
+            {
+                metrics.increment(Metrics.SCRAPE_FAILURES);
+            }
 
-                return name;
-            };
+            extracted.cancel(false);
 
-            return new ImmutableTriple<>(
-                new ImmutablePair<>(
-                    opponentId != -1 ? extract.apply(opponentId, opponentPat) : null,
-                    p.getName()),
-                extract.apply(valueId, valuePat),
-                w.getBounds());
+            CompletableFuture<BufferedImage> c = capture.get();
+            if (c != null) c.cancel(false);
         });
 
-        if (t == null) return null;
+        return result;
+    }
+
+    @SneakyThrows
+    private DonationInfo scrape(List<Spec> specs)
+    {
+        assert !client.isClientThread();
 
-        return new DonationInfo(
-            t.getLeft().getLeft(),
-            t.getLeft().getRight(),
-            parseValue(t.getMiddle()),
-            cropScreenshot(clientUtil.takeScreenshot(), t.getRight()));
+        try
+        {
+            return scrapeAsync(specs, DEFAULT_TIMEOUT).get();
+        }
+        catch (ExecutionException e)
+        {
+            throw e.getCause();
+        }
     }
 
-    public DonationInfo scrapeDonation(
-        int containerId, int valueId, Pattern valuePat)
+    public DonationInfo scrapeDonation(Spec spec)
     {
-        return scrapeDonation(containerId, -1, null, valueId, valuePat);
+        return scrape(List.of(spec));
     }
 
     public DonationInfo scrapeTradeMainScreen()
     {
-        return scrapeDonation(
-            InterfaceID.Trademain.UNIVERSE,
-            InterfaceID.Trademain.TITLE, TRADE_OPPONENT_PAT,
-            InterfaceID.Trademain.OTHER_OFFER_HEADER, TRADE_VALUE_PAT);
+        return scrapeDonation(TRADE_MAIN);
     }
 
     public DonationInfo scrapeTradeConfirmScreen()
     {
-        return scrapeDonation(
-            InterfaceID.Tradeconfirm.UNIVERSE,
-            InterfaceID.Tradeconfirm.TRADEOPPONENT, TRADE_OPPONENT_PAT,
-            InterfaceID.Tradeconfirm.YOU_WILL_RECEIVE, TRADE_VALUE_PAT);
+        return scrapeDonation(TRADE_CONFIRM);
     }
 
     public DonationInfo scrapePriceCheckScreen()
     {
-        return scrapeDonation(
-            InterfaceID.GePricechecker.UNIVERSE,
-            InterfaceID.GePricechecker.OUTPUT, PRICE_CHECK_VALUE_PAT);
+        return scrapeDonation(PRICE_CHECK);
     }
 
     public DonationInfo scrapeLootingBag()
     {
-        return scrapeDonation(
-            InterfaceID.WildernessLootingbag.UNIVERSE,
-            InterfaceID.WildernessLootingbag.TOTAL, TRADE_VALUE_PAT);
+        return scrapeDonation(LOOTING_BAG);
     }
 
+    /**
+     * Scrapes whichever registered interface is open, with a single client
+     * thread invocation.
+     */
     public DonationInfo scrapeDonation()
     {
-        List<Supplier<DonationInfo>> scrapers = List.of(
-            this::scrapeTradeMainScreen,
-            this::scrapeTradeConfirmScreen,
-            this::scrapePriceCheckScreen,
-            this::scrapeLootingBag);
-
-        for (var s : scrapers)
-        {
-            DonationInfo di = s.get();
-            if (di != null) return di;
-        }
+        return scrape(specs);
+    }
 
-        return null;
+    /**
+     * Non-blocking variant of {@link #scrapeDonation()}. The future completes
+     * with {@code null} if no interface is open, and exceptionally with a
+     * {@link java.util.concurrent.TimeoutException} after {@code timeout}.
+     * Cancelling it abandons the scrape wherever it is.
+     */
+    public CompletableFuture<DonationInfo> scrapeDonationAsync(Duration timeout)
+    {
+        return scrapeAsync(specs, timeout);
     }
 }
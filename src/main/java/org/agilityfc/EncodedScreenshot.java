@@ -0,0 +1,56 @@
+package org.agilityfc;
+
+import lombok.Value;
+import org.agilityfc.util.ImageEncoder;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * The encodings of a screenshot, each made the first time it is asked for and
+ * then shared by the upload, the outbox and the local archive.
+ */
+public class EncodedScreenshot
+{
+    @Value
+    public static class Encoding
+    {
+        /// MIME type, e.g. {@code image/png}.
+        private String type;
+
+        /// File extension, without the dot.
+        private String extension;
+
+        private byte[] data;
+    }
+
+    private final BufferedImage img;
+
+    /// Keyed by identity, since encoders with the same format can differ in
+    /// their settings.
+    private final Map<ImageEncoder, Encoding> encodings = new IdentityHashMap<>(2);
+
+    EncodedScreenshot(BufferedImage img)
+    {
+        this.img = img;
+    }
+
+    /**
+     * Returns the screenshot as encoded by {@code encoder}, encoding it only
+     * if it has not been already.
+     */
+    public synchronized Encoding get(ImageEncoder encoder) throws IOException
+    {
+        Encoding e = encodings.get(encoder);
+        if (e == null)
+        {
+            e = new Encoding(encoder.contentType(), encoder.extension(),
+                encoder.encode(img));
+            encodings.put(encoder, e);
+        }
+
+        return e;
+    }
+}
@@ -0,0 +1,47 @@
+package org.agilityfc;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import org.agilityfc.util.ImageEncoder;
+
+import java.io.IOException;
+
+/**
+ * Request body of a donation's screenshot, which is encoded when OkHttp first
+ * asks for the body's length rather than when the request is built.
+ * <p>
+ * The encoding is kept by the donation, so retries and the local archive
+ * reuse it instead of encoding the screenshot again.
+ */
+class ImageRequestBody extends RequestBody
+{
+    private final DonationInfo di;
+    private final ImageEncoder encoder;
+    private final MediaType mediaType;
+
+    ImageRequestBody(DonationInfo di, ImageEncoder encoder)
+    {
+        this.di = di;
+        this.encoder = encoder;
+        this.mediaType = MediaType.parse(encoder.contentType());
+    }
+
+    @Override
+    public MediaType contentType()
+    {
+        return mediaType;
+    }
+
+    @Override
+    public long contentLength() throws IOException
+    {
+        return di.encode(encoder).getData().length;
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException
+    {
+        sink.write(di.encode(encoder).getData());
+    }
+}
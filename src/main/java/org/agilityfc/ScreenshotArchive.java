@@ -0,0 +1,166 @@
+package org.agilityfc;
+
+import lombok.extern.slf4j.Slf4j;
+import net.runelite.client.Notifier;
+import net.runelite.client.RuneLite;
+import net.runelite.client.util.QuantityFormatter;
+import org.agilityfc.util.ImageEncoder;
+import org.agilityfc.util.IoExecutor;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.awt.Image;
+import java.awt.Toolkit;
+import java.awt.datatransfer.DataFlavor;
+import java.awt.datatransfer.Transferable;
+import java.awt.datatransfer.UnsupportedFlavorException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Keeps a local copy of the screenshot of every donation sent, or that failed
+ * to send, next to the client's own screenshots.
+ * <p>
+ * The file is written from the same encoding as the upload whenever that is a
+ * PNG, so the screenshot is only encoded once.
+ */
+@Slf4j
+@Singleton
+public class ScreenshotArchive
+{
+    private static final String DIR_NAME = "AFC";
+    private static final String PNG_TYPE = "image/png";
+
+    /// Same as the client's screenshots.
+    private static final DateTimeFormatter TIME_FORMAT =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss");
+
+    @Inject
+    private AgilityFcPlugin plugin;
+
+    @Inject
+    private AgilityFcConfig config;
+
+    @Inject
+    private Notifier notifier;
+
+    @Inject
+    private IoExecutor executor;
+
+    private static final class ImageSelection implements Transferable
+    {
+        private final Image img;
+
+        ImageSelection(Image img)
+        {
+            this.img = img;
+        }
+
+        @Override
+        public DataFlavor[] getTransferDataFlavors()
+        {
+            return new DataFlavor[]{DataFlavor.imageFlavor};
+        }
+
+        @Override
+        public boolean isDataFlavorSupported(DataFlavor flavor)
+        {
+            return DataFlavor.imageFlavor.equals(flavor);
+        }
+
+        @Override
+        public Object getTransferData(DataFlavor flavor)
+            throws UnsupportedFlavorException
+        {
+            if (!isDataFlavorSupported(flavor))
+            {
+                throw new UnsupportedFlavorException(flavor);
+            }
+
+            return img;
+        }
+    }
+
+    private static String name(DonationInfo di)
+    {
+        assert di.getFrom() != null;
+        long amount = di.getAmount();
+
+        // NOTE: The decimal format only takes an int, larger amounts are
+        // rare enough to do without the decimals.
+        String value = amount <= Integer.MAX_VALUE
+            ? QuantityFormatter.quantityToRSDecimalStack((int) amount, true)
+            : QuantityFormatter.quantityToStackSize(amount);
+
+        return String.format("Donation (%s) (%s)",
+            di.getFrom(), value.toLowerCase());
+    }
+
+    /**
+     * Saves the screenshot of {@code di} in the background, copies it to the
+     * clipboard and notifies the user. If too many saves are already waiting,
+     * this one is made on the calling thread.
+     */
+    public void save(DonationInfo di, boolean success)
+    {
+        String name = success ? name(di) : name(di) + " (Failed)";
+        LocalDateTime time = LocalDateTime.now();
+
+        executor.execute(() ->
+        {
+            try
+            {
+                write(di, name, time);
+            }
+            catch (IOException e)
+            {
+                log.error("Could not save screenshot {}", name, e);
+            }
+        });
+    }
+
+    private ImageEncoder encoder()
+    {
+        ImageEncoder e = plugin.getEncoder();
+        if (e != null && e.contentType().equals(PNG_TYPE)) return e;
+
+        return ScreenshotFormat.PNG.encoder(config.screenshotEncoding());
+    }
+
+    private void write(DonationInfo di, String name, LocalDateTime time)
+        throws IOException
+    {
+        EncodedScreenshot.Encoding e = di.encode(encoder());
+
+        File dir = new File(new File(RuneLite.SCREENSHOT_DIR, di.getTo()), DIR_NAME);
+        if (!dir.exists() && !dir.mkdirs())
+        {
+            throw new IOException("Could not create " + dir);
+        }
+
+        String base = name + " " + time.format(TIME_FORMAT);
+        File f = new File(dir, base + "." + e.getExtension());
+        for (int i = 1; f.exists(); i++)
+        {
+            f = new File(dir, String.format("%s(%d).%s", base, i, e.getExtension()));
+        }
+
+        Files.write(f.toPath(), e.getData(), StandardOpenOption.CREATE_NEW);
+
+        try
+        {
+            Toolkit.getDefaultToolkit().getSystemClipboard()
+                .setContents(new ImageSelection(di.getScreenshot()), null);
+        }
+        catch (IllegalStateException ex)
+        {
+            log.warn("Could not copy screenshot to the clipboard", ex);
+        }
+
+        notifier.notify("A screenshot was saved to " + f);
+    }
+}
@@ -0,0 +1,29 @@
+package org.agilityfc;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.agilityfc.util.PngEncoder;
+
+@Getter
+@RequiredArgsConstructor
+public enum ScreenshotEncoding
+{
+    FASTEST("Fastest", 1, PngEncoder.Filter.NONE),
+    BALANCED("Balanced", 6, PngEncoder.Filter.UP),
+    SMALLEST("Smallest", 9, PngEncoder.Filter.ADAPTIVE);
+
+    private final String name;
+    private final int level;
+    private final PngEncoder.Filter filter;
+
+    public PngEncoder encoder(boolean indexed)
+    {
+        return new PngEncoder(level, filter, true, indexed);
+    }
+
+    @Override
+    public String toString()
+    {
+        return name;
+    }
+}
@@ -0,0 +1,39 @@
+package org.agilityfc;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.agilityfc.util.ImageEncoder;
+import org.agilityfc.util.QoiEncoder;
+
+@Getter
+@RequiredArgsConstructor
+public enum ScreenshotFormat
+{
+    PNG("PNG"),
+    /// PNG with a palette when the screenshot has at most 256 colours, which
+    /// interface screenshots almost always do.
+    INDEXED_PNG("Indexed PNG"),
+    /// Only used if the service accepts it, otherwise PNG is sent instead.
+    QOI("QOI");
+
+    private final String name;
+
+    public ImageEncoder encoder(ScreenshotEncoding encoding)
+    {
+        switch (this)
+        {
+            case INDEXED_PNG:
+                return encoding.encoder(true);
+            case QOI:
+                return new QoiEncoder();
+            default:
+                return encoding.encoder(false);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return name;
+    }
+}
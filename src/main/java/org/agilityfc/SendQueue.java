@@ -0,0 +1,392 @@
+package org.agilityfc;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Response;
+import org.agilityfc.util.DonorDirectory;
+import org.agilityfc.util.Metrics;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Donations waiting to be sent from the panel, or being sent.
+ * <p>
+ * Sends go through OkHttp's own threads, at most {@value #MAX_IN_FLIGHT} at a
+ * time, so the panel can scrape the next donation while earlier ones upload.
+ * Sent donations leave the queue; failed ones stay until they are dismissed,
+ * and are handed to the outbox to be retried.
+ * <p>
+ * If the plugin {@linkplain AgilityFcPlugin#isDeferred() defers} screenshots,
+ * a donation is journaled in the outbox before it is sent, and counts as sent
+ * once the service has acknowledged it. Its screenshot is then left in the
+ * outbox for upload.
+ */
+@Slf4j
+@Singleton
+public class SendQueue
+{
+    private static final int MAX_IN_FLIGHT = 3;
+
+    @Getter
+    @RequiredArgsConstructor
+    public enum Status
+    {
+        QUEUED("Queued"),
+        SENDING("Sending"),
+        FAILED("Failed, will retry"),
+        CANCELLED("Cancelled");
+
+        private final String name;
+
+        @Override
+        public String toString()
+        {
+            return name;
+        }
+    }
+
+    public static class Entry
+    {
+        @Getter
+        private final DonationInfo donationInfo;
+
+        @Getter
+        private volatile Status status = Status.QUEUED;
+
+        private Call call;
+        private long start;
+
+        /// Whether the screenshot was left out of the call.
+        private boolean deferred;
+
+        /// The outbox entry held for a deferred send.
+        private DonationOutbox.Entry held;
+
+        /// Whether the call was enqueued, and may thus have reached the
+        /// service even if it was cancelled.
+        private boolean enqueued;
+
+        Entry(DonationInfo di)
+        {
+            this.donationInfo = di;
+        }
+    }
+
+    @Inject
+    private AgilityFcPlugin plugin;
+
+    @Inject
+    private DonationOutbox outbox;
+
+    @Inject
+    private DonorDirectory donors;
+
+    @Inject
+    private DonationLedger ledger;
+
+    @Inject
+    private ScreenshotArchive archive;
+
+    @Inject
+    private Metrics metrics;
+
+    private final List<Entry> entries = new ArrayList<>();
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+    private int inFlight;
+
+    /// Sends that started and whose outcome has not been recorded yet.
+    private int unrecorded;
+
+    /**
+     * Adds a listener that is called, on no particular thread, whenever an
+     * entry is added, removed or changes status.
+     */
+    public void addListener(Runnable listener)
+    {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Runnable listener)
+    {
+        listeners.remove(listener);
+    }
+
+    public synchronized List<Entry> entries()
+    {
+        return new ArrayList<>(entries);
+    }
+
+    /**
+     * Queues a donation, which is sent as soon as fewer than
+     * {@value #MAX_IN_FLIGHT} others are.
+     */
+    public void add(DonationInfo di)
+    {
+        assert di.getFrom() != null;
+        Map<Entry, IOException> unstarted;
+
+        synchronized (this)
+        {
+            entries.add(new Entry(di));
+            unstarted = startNext();
+        }
+
+        notifyListeners();
+        unstarted.forEach((e, ex) -> done(e, ex, null));
+    }
+
+    /**
+     * Cancels a queued or ongoing send, or dismisses a failed one.
+     */
+    public void cancel(Entry e)
+    {
+        Call call;
+
+        synchronized (this)
+        {
+            if (!entries.remove(e)) return;
+
+            call = e.status == Status.SENDING ? e.call : null;
+            if (e.status != Status.FAILED) e.status = Status.CANCELLED;
+        }
+
+        // NOTE: The callback of a cancelled call still runs, and frees its
+        // slot.
+        if (call != null) call.cancel();
+        notifyListeners();
+    }
+
+    /**
+     * Hands the donations that have not started sending to the outbox, and
+     * waits until {@code deadline}, in {@link System#nanoTime()} terms, for
+     * ongoing sends to finish, so that they are recorded in the ledger or
+     * handed to the outbox before those are stopped.
+     */
+    public void stop(long deadline)
+    {
+        List<Entry> queued = new ArrayList<>();
+
+        synchronized (this)
+        {
+            entries.removeIf(e ->
+            {
+                if (e.status == Status.SENDING) return false;
+                if (e.status == Status.QUEUED) queued.add(e);
+                return true;
+            });
+        }
+
+        queued.forEach(e -> outbox.offer(e.donationInfo));
+        notifyListeners();
+
+        synchronized (this)
+        {
+            try
+            {
+                while (unrecorded > 0)
+                {
+                    long left = TimeUnit.NANOSECONDS.toMillis(
+                        deadline - System.nanoTime());
+                    if (left <= 0) break;
+
+                    wait(left);
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            if (unrecorded > 0)
+            {
+                log.warn("Stopping with {} sends still ongoing", unrecorded);
+            }
+        }
+    }
+
+    private void notifyListeners()
+    {
+        listeners.forEach(Runnable::run);
+    }
+
+    /**
+     * Starts sending queued entries while there are free slots.
+     *
+     * @return the entries whose sends could not be started, which hold their
+     * slots until they are passed to {@link #done} once the lock is released.
+     */
+    private Map<Entry, IOException> startNext()
+    {
+        assert Thread.holdsLock(this);
+        Map<Entry, IOException> unstarted = new LinkedHashMap<>();
+
+        for (Entry e : entries)
+        {
+            if (inFlight >= MAX_IN_FLIGHT) break;
+            if (e.status != Status.QUEUED) continue;
+
+            e.status = Status.SENDING;
+            e.start = System.nanoTime();
+            e.deferred = plugin.isDeferred();
+            inFlight++;
+            unrecorded++;
+
+            try
+            {
+                if (e.deferred) hold(e);
+                else enqueue(e);
+            }
+            catch (RuntimeException ex)
+            {
+                unstarted.put(e, new IOException("Could not start the send", ex));
+            }
+        }
+
+        return unstarted;
+    }
+
+    /**
+     * Journals a deferred send in the outbox, and sends it once it is there,
+     * so that its screenshot is not lost if the client exits before the
+     * upload.
+     */
+    private void hold(Entry e)
+    {
+        e.call = plugin.makeMetadataCall(e.donationInfo);
+
+        outbox.hold(e.donationInfo, held ->
+        {
+            if (held == null)
+            {
+                done(e, new IOException("Could not journal the donation"), null);
+                return;
+            }
+
+            synchronized (this)
+            {
+                e.held = held;
+                e.enqueued = e.status != Status.CANCELLED;
+            }
+
+            // NOTE: A call cancelled before it is enqueued fails without
+            // sending anything.
+            e.call.enqueue(callback(e));
+        });
+    }
+
+    private void enqueue(Entry e)
+    {
+        e.call = plugin.makeCall(e.donationInfo);
+        e.call.enqueue(callback(e));
+    }
+
+    private Callback callback(Entry e)
+    {
+        return new Callback()
+        {
+            @Override
+            public void onFailure(Call call, IOException ex)
+            {
+                done(e, ex, null);
+            }
+
+            @Override
+            public void onResponse(Call call, Response r)
+            {
+                String serverId = null;
+
+                try (Response ignored = r)
+                {
+                    if (!r.isSuccessful())
+                    {
+                        throw new IOException(String.format(
+                            "Unexpected response: %s, \"%s\"",
+                            r.code(), r.body().string()));
+                    }
+
+                    if (e.deferred) serverId = plugin.donationId(r);
+                }
+                catch (IOException ex)
+                {
+                    done(e, ex, null);
+                    return;
+                }
+
+                done(e, null, serverId);
+            }
+        };
+    }
+
+    private void done(Entry e, IOException ex, String serverId)
+    {
+        DonationInfo di = e.donationInfo;
+        boolean cancelled;
+        Map<Entry, IOException> unstarted;
+
+        synchronized (this)
+        {
+            inFlight--;
+            cancelled = e.status == Status.CANCELLED;
+
+            if (ex == null)
+            {
+                entries.remove(e);
+            }
+            else if (!cancelled)
+            {
+                e.status = Status.FAILED;
+            }
+
+            unstarted = startNext();
+        }
+
+        if (ex == null)
+        {
+            metrics.record(Metrics.SEND, e.start);
+            donors.record(di.getFrom());
+            ledger.record(di, plugin.getEncoder(), serverId);
+            archive.save(di, true);
+
+            if (e.held != null) outbox.acknowledge(e.held, serverId);
+        }
+        else if (!cancelled)
+        {
+            // NOTE: Only failures are retried and archived, a cancelled send
+            // was deliberate and did not fail.
+            log.error("Send failed", ex);
+            metrics.increment(Metrics.SEND_FAILURES);
+            archive.save(di, false);
+
+            if (e.held != null) outbox.release(e.held);
+            else outbox.offer(di);
+        }
+        else if (e.held != null)
+        {
+            // NOTE: The service may have accepted a cancelled donation whose
+            // metadata went out, and the held entry is the only copy of its
+            // screenshot, so it is left for the drain.
+            if (e.enqueued) outbox.release(e.held);
+            else outbox.drop(e.held);
+        }
+
+        synchronized (this)
+        {
+            unrecorded--;
+            notifyAll();
+        }
+
+        notifyListeners();
+        unstarted.forEach((u, uex) -> done(u, uex, null));
+    }
+}
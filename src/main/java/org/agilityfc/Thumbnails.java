@@ -0,0 +1,86 @@
+package org.agilityfc;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import net.runelite.client.ui.PluginPanel;
+import net.runelite.client.util.ImageUtil;
+import org.agilityfc.util.ImageScaler;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.swing.ImageIcon;
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Renders the panel's screenshot previews in the background and keeps the
+ * recently shown ones, so that showing a preview on the EDT only swaps an
+ * icon.
+ */
+@Singleton
+public class Thumbnails
+{
+    static final Dimension SIZE = new Dimension(
+        PluginPanel.PANEL_WIDTH - 20, (int) (0.75 * PluginPanel.PANEL_WIDTH));
+
+    private static final int CACHE_SIZE = 8;
+
+    private final ScheduledExecutorService executor;
+
+    /// Only used on the executor.
+    private final ImageScaler scaler = new ImageScaler();
+
+    /// Keyed by identity, since screenshots are never modified.
+    private final Cache<BufferedImage, CompletableFuture<ImageIcon>> cache =
+        CacheBuilder.newBuilder()
+            .weakKeys()
+            .maximumSize(CACHE_SIZE)
+            .build();
+
+    private final ImageIcon placeholder;
+
+    @Inject
+    public Thumbnails(ScheduledExecutorService executor)
+    {
+        this.executor = executor;
+
+        BufferedImage icon =
+            ImageUtil.loadImageResource(AgilityFcPlugin.class, "icon.png");
+        placeholder = new ImageIcon(new ImageScaler().fit(icon, SIZE));
+    }
+
+    /**
+     * Returns the preview shown when there is no screenshot.
+     */
+    public ImageIcon placeholder()
+    {
+        return placeholder;
+    }
+
+    /**
+     * Returns the preview of {@code img}, rendering it in the background
+     * unless it is already rendered or underway.
+     */
+    public CompletableFuture<ImageIcon> render(BufferedImage img)
+    {
+        try
+        {
+            return cache.get(img, () -> CompletableFuture.supplyAsync(
+                () -> new ImageIcon(scale(img)), executor));
+        }
+        catch (ExecutionException e)
+        {
+            return CompletableFuture.failedFuture(e.getCause());
+        }
+    }
+
+    private synchronized BufferedImage scale(BufferedImage img)
+    {
+        // NOTE: The executor is single-threaded in the client, the lock
+        // only keeps the scratch buffers safe if it is not.
+        return scaler.fit(img, SIZE);
+    }
+}
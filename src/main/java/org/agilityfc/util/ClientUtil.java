@@ -4,16 +4,25 @@ import lombok.SneakyThrows;
 import net.runelite.api.Client;
 import net.runelite.client.callback.ClientThread;
 import net.runelite.client.ui.DrawManager;
-import net.runelite.client.util.ImageUtil;
 
 import javax.inject.Inject;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.time.Duration;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.FutureTask;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 public class ClientUtil
 {
+    /// Deadline of the blocking variants. The client thread and frames can
+    /// stall for seconds when the client is minimised or throttled.
+    private static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(5);
+
     @Inject
     private Client client;
 
@@ -23,23 +32,178 @@ public class ClientUtil
     @Inject
     private DrawManager drawManager;
 
+    @Inject
+    private Metrics metrics;
+
+    private static Rectangle scaleBounds(
+        Rectangle bounds, double scaleX, double scaleY)
+    {
+        return new Rectangle(
+            (int) (scaleX * bounds.x),
+            (int) (scaleY * bounds.y),
+            (int) (scaleX * bounds.width),
+            (int) (scaleY * bounds.height));
+    }
+
+    /**
+     * Copies the given region out of a frame into a new image of exactly its
+     * size, so that the frame itself can be released right away.
+     */
+    static BufferedImage copyRegion(Image frame, Rectangle region)
+    {
+        Rectangle r = region.intersection(new Rectangle(
+            frame.getWidth(null), frame.getHeight(null)));
+
+        if (r.isEmpty())
+        {
+            throw new IllegalArgumentException("Region is outside of the frame");
+        }
+
+        BufferedImage img = new BufferedImage(
+            r.width, r.height, BufferedImage.TYPE_INT_RGB);
+
+        Graphics2D g = img.createGraphics();
+        g.drawImage(frame,
+            0, 0, r.width, r.height,
+            r.x, r.y, r.x + r.width, r.y + r.height,
+            null);
+        g.dispose();
+
+        return img;
+    }
+
+    /**
+     * Runs {@code c} on the client thread without blocking. If the returned
+     * future is cancelled or times out before the client thread gets to it,
+     * {@code c} is skipped.
+     */
+    public <T> CompletableFuture<T> runOnClientThreadAsync(Callable<T> c)
+    {
+        CompletableFuture<T> r = new CompletableFuture<>();
+        long start = System.nanoTime();
+
+        clientThread.invoke(() ->
+        {
+            if (r.isDone()) return;
+            metrics.record(Metrics.CLIENT_THREAD, start);
+
+            try
+            {
+                r.complete(c.call());
+            }
+            catch (Throwable t)
+            {
+                r.completeExceptionally(t);
+            }
+        });
+
+        return r;
+    }
+
+    public <T> CompletableFuture<T> runOnClientThreadAsync(
+        Callable<T> c, Duration timeout)
+    {
+        return runOnClientThreadAsync(c)
+            .orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
     @SneakyThrows
+    public <T> T runOnClientThread(Callable<T> c, Duration timeout)
+    {
+        assert !client.isClientThread();
+
+        try
+        {
+            return runOnClientThreadAsync(c, timeout).get();
+        }
+        catch (ExecutionException e)
+        {
+            throw e.getCause();
+        }
+    }
+
     public <T> T runOnClientThread(Callable<T> c)
     {
-        FutureTask<T> r = new FutureTask<>(c);
-        clientThread.invoke(r);
-        return r.get();
+        return runOnClientThread(c, DEFAULT_TIMEOUT);
     }
 
+    /**
+     * Captures the given region of the next frame. Unlike
+     * {@link #takeScreenshot}, this does not block and may be called from the
+     * client thread. If the returned future is cancelled or times out before
+     * the next frame, the frame is not copied.
+     *
+     * @param bounds the region in canvas coordinates, e.g. a widget's bounds.
+     * Stretched mode scaling is applied to it here.
+     */
+    public CompletableFuture<BufferedImage> captureRegion(Rectangle bounds)
+    {
+        if (client.isStretchedEnabled())
+        {
+            Dimension real = client.getRealDimensions();
+            Dimension stretched = client.getStretchedDimensions();
+
+            bounds = scaleBounds(
+                bounds,
+                stretched.getWidth() / real.getWidth(),
+                stretched.getHeight() / real.getHeight());
+        }
+
+        Rectangle region = bounds;
+        CompletableFuture<BufferedImage> r = new CompletableFuture<>();
+        long start = System.nanoTime();
+
+        drawManager.requestNextFrameListener(img ->
+        {
+            if (r.isDone()) return;
+            metrics.record(Metrics.FRAME_WAIT, start);
+
+            try
+            {
+                long cropStart = System.nanoTime();
+                BufferedImage copy = copyRegion(img, region);
+                metrics.record(Metrics.CROP, cropStart);
+
+                r.complete(copy);
+            }
+            catch (RuntimeException e)
+            {
+                r.completeExceptionally(e);
+            }
+        });
+
+        return r;
+    }
+
+    public CompletableFuture<BufferedImage> captureRegion(
+        Rectangle bounds, Duration timeout)
+    {
+        return captureRegion(bounds)
+            .orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Takes a screenshot of the given region of the next frame.
+     *
+     * @see #captureRegion
+     */
     @SneakyThrows
-    public BufferedImage takeScreenshot()
+    public BufferedImage takeScreenshot(Rectangle bounds, Duration timeout)
     {
         assert !client.isClientThread();
 
-        CompletableFuture<BufferedImage> r = new CompletableFuture<>();
-        drawManager.requestNextFrameListener(
-            img -> r.complete(ImageUtil.bufferedImageFromImage(img)));
+        try
+        {
+            return captureRegion(bounds, timeout).get();
+        }
+        catch (ExecutionException e)
+        {
+            throw e.getCause();
+        }
+    }
 
-        return r.get();
+    public BufferedImage takeScreenshot(Rectangle bounds)
+    {
+        return takeScreenshot(bounds, DEFAULT_TIMEOUT);
     }
 }
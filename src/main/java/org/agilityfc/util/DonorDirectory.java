@@ -0,0 +1,346 @@
+package org.agilityfc.util;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Consumer;
+
+/**
+ * Every donor name that was ever sent successfully, with how often and when
+ * it was last sent.
+ * <p>
+ * Donors are kept in an append-only file in the RuneLite directory, which is
+ * loaded in the background and compacted to one record per donor. Lookups go
+ * through an immutable trie in which every node knows the highest ranked
+ * donor below it, so completing a prefix only walks the prefix.
+ */
+@Slf4j
+@Singleton
+public class DonorDirectory
+{
+    /// "AFD" followed by the format version.
+    private static final int MAGIC = 0x41464400;
+    private static final int VERSION = 1;
+
+    @Value
+    public static class Donor
+    {
+        private String name;
+
+        /// Number of donations sent for this donor.
+        private int count;
+
+        /// Epoch millis at which a donation was last sent.
+        private long lastSeen;
+
+        boolean outranks(Donor o)
+        {
+            return o == null || count > o.count ||
+                count == o.count && lastSeen > o.lastSeen;
+        }
+    }
+
+    private static final class Node
+    {
+        static final Node EMPTY = new Node(new char[0], new Node[0], null, null);
+
+        /// Sorted edge labels, parallel to {@code children}.
+        final char[] chars;
+        final Node[] children;
+
+        /// The donor whose key ends here, if any.
+        final Donor donor;
+
+        /// The highest ranked donor in this subtree.
+        final Donor best;
+
+        Node(char[] chars, Node[] children, Donor donor, Donor best)
+        {
+            this.chars = chars;
+            this.children = children;
+            this.donor = donor;
+            this.best = best;
+        }
+
+        Node child(char c)
+        {
+            int i = Arrays.binarySearch(chars, c);
+            return i >= 0 ? children[i] : null;
+        }
+
+        /**
+         * Returns a copy of this node with {@code d} stored under
+         * {@code key}, sharing every subtree off the path.
+         */
+        Node with(String key, int depth, Donor d)
+        {
+            Donor b = d.outranks(best) ? d : best;
+
+            if (depth == key.length())
+            {
+                return new Node(chars, children, d, b);
+            }
+
+            char c = key.charAt(depth);
+            int i = Arrays.binarySearch(chars, c);
+
+            if (i >= 0)
+            {
+                Node[] cs = children.clone();
+                cs[i] = cs[i].with(key, depth + 1, d);
+                return new Node(chars, cs, donor, b);
+            }
+
+            i = -i - 1;
+            char[] ls = new char[chars.length + 1];
+            Node[] cs = new Node[children.length + 1];
+            System.arraycopy(chars, 0, ls, 0, i);
+            System.arraycopy(children, 0, cs, 0, i);
+            System.arraycopy(chars, i, ls, i + 1, chars.length - i);
+            System.arraycopy(children, i, cs, i + 1, children.length - i);
+            ls[i] = c;
+            cs[i] = EMPTY.with(key, depth + 1, d);
+
+            return new Node(ls, cs, donor, b);
+        }
+    }
+
+    private final ScheduledExecutorService executor;
+
+    private final Map<String, Donor> donors = new HashMap<>();
+    private final List<Consumer<Collection<String>>> listeners =
+        new CopyOnWriteArrayList<>();
+
+    /// Published by {@link #record} and {@link #load}, read without locking.
+    private volatile Node root = Node.EMPTY;
+
+    /// Number of records made, and how many of them are in the file as of
+    /// the last compaction.
+    private long records;
+    private long compacted;
+
+    private boolean loaded;
+    private final Journal journal =
+        new Journal("donors.dat", "donor directory", MAGIC, VERSION);
+
+    @Inject
+    public DonorDirectory(ScheduledExecutorService executor)
+    {
+        this.executor = executor;
+    }
+
+    private static void writeDonor(DataOutputStream out, Donor d)
+        throws IOException
+    {
+        out.writeUTF(d.getName());
+        out.writeInt(d.getCount());
+        out.writeLong(d.getLastSeen());
+    }
+
+    /**
+     * Adds a listener that is called with names that are new to the
+     * directory.
+     */
+    public void addListener(Consumer<Collection<String>> listener)
+    {
+        listeners.add(listener);
+    }
+
+    public synchronized int size()
+    {
+        return donors.size();
+    }
+
+    public synchronized List<String> names()
+    {
+        List<String> r = new ArrayList<>(donors.size());
+        donors.values().forEach(d -> r.add(d.getName()));
+        return r;
+    }
+
+    /**
+     * Completes {@code prefix} to the highest ranked donor that is longer
+     * than it, or returns {@code null}.
+     */
+    public String complete(String prefix)
+    {
+        String key = NameIndex.normalize(prefix);
+
+        Node n = root;
+        for (int i = 0; i < key.length() && n != null; i++)
+        {
+            n = n.child(key.charAt(i));
+        }
+
+        if (n == null || n.best == null) return null;
+        if (n.donor != n.best) return n.best.getName();
+
+        // The prefix itself is the best donor, so look one level down.
+        Donor best = null;
+        for (Node c : n.children)
+        {
+            if (c.best.outranks(best)) best = c.best;
+        }
+
+        return best == null ? null : best.getName();
+    }
+
+    public void start()
+    {
+        executor.execute(() ->
+        {
+            try
+            {
+                load();
+            }
+            catch (IOException e)
+            {
+                log.error("Could not load the donor directory", e);
+            }
+        });
+    }
+
+    public void stop()
+    {
+        executor.execute(journal::close);
+    }
+
+    /**
+     * Records a donation sent for {@code name}. The directory is updated
+     * at once, and the file in the background.
+     */
+    public void record(String name)
+    {
+        Donor d = new Donor(name, 1, System.currentTimeMillis());
+        String key = NameIndex.normalize(name);
+        boolean added;
+        long seq;
+
+        synchronized (this)
+        {
+            added = merge(key, d);
+            seq = ++records;
+        }
+
+        if (added)
+        {
+            List<String> names = List.of(name);
+            listeners.forEach(l -> l.accept(names));
+        }
+
+        executor.execute(() ->
+        {
+            // NOTE: Records made while the file was loading are already in
+            // the compacted file.
+            if (!journal.isOpen() || seq <= compacted) return;
+
+            try
+            {
+                journal.append(out -> writeDonor(out, d));
+            }
+            catch (IOException e)
+            {
+                log.warn("Could not record donor {}", name, e);
+            }
+        });
+    }
+
+    /**
+     * Adds the counts of {@code d} to its donor and republishes the trie.
+     *
+     * @return whether the donor is new.
+     */
+    private boolean merge(String key, Donor d)
+    {
+        assert Thread.holdsLock(this);
+
+        Donor old = donors.get(key);
+        if (old != null)
+        {
+            d = new Donor(old.getName(), old.getCount() + d.getCount(),
+                Math.max(old.getLastSeen(), d.getLastSeen()));
+        }
+
+        donors.put(key, d);
+        root = root.with(key, 0, d);
+        return old == null;
+    }
+
+    private void load() throws IOException
+    {
+        if (!loaded) replay();
+
+        loaded = true;
+        compact();
+    }
+
+    private void replay() throws IOException
+    {
+        Map<String, Donor> read = new HashMap<>();
+
+        boolean complete = journal.replay((in, version) ->
+        {
+            Donor d = new Donor(in.readUTF(), in.readInt(), in.readLong());
+
+            read.merge(NameIndex.normalize(d.getName()), d, (a, b) ->
+                new Donor(b.getName(), a.getCount() + b.getCount(),
+                    Math.max(a.getLastSeen(), b.getLastSeen())));
+        });
+
+        // NOTE: The donors of an unreadable file are left in the file that
+        // was moved aside, rather than half loaded.
+        if (!complete) return;
+
+        // NOTE: Names new to this session are reported in one go, rather
+        // than one call per donor.
+        List<String> added = new ArrayList<>();
+
+        synchronized (this)
+        {
+            for (Map.Entry<String, Donor> e : read.entrySet())
+            {
+                if (merge(e.getKey(), e.getValue()))
+                {
+                    added.add(e.getValue().getName());
+                }
+            }
+        }
+
+        log.debug("Loaded {} donors", read.size());
+        if (!added.isEmpty()) listeners.forEach(l -> l.accept(added));
+    }
+
+    /**
+     * Rewrites the file with one record per donor and reopens it for
+     * appending.
+     */
+    private void compact() throws IOException
+    {
+        List<Donor> live;
+        synchronized (this)
+        {
+            live = new ArrayList<>(donors.values());
+            compacted = records;
+        }
+
+        journal.rewrite(out ->
+        {
+            for (Donor d : live)
+            {
+                writeDonor(out, d);
+            }
+        });
+    }
+}
@@ -0,0 +1,136 @@
+package org.agilityfc.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Levenshtein distance from a fixed string, using Myers' bit-parallel
+ * algorithm: a handful of word operations per character of the other string,
+ * rather than a whole row of the dynamic programming table.
+ */
+public class EditDistance
+{
+    private final String pattern;
+
+    /// For each character, the positions of the pattern it occurs at.
+    private final long[] ascii = new long[128];
+    private final Map<Character, Long> other = new HashMap<>();
+
+    public EditDistance(String pattern)
+    {
+        this.pattern = pattern;
+
+        for (int i = 0; i < pattern.length() && i < Long.SIZE; i++)
+        {
+            char c = pattern.charAt(i);
+            if (c < ascii.length) ascii[c] |= 1L << i;
+            else other.merge(c, 1L << i, (x, y) -> x | y);
+        }
+    }
+
+    /**
+     * Returns a set of the characters in {@code s}, as a bit mask. Each edit
+     * adds or removes at most one character from the set, so two strings
+     * whose sets differ by more than {@code k} characters are more than
+     * {@code k} edits apart.
+     */
+    public static long signature(String s)
+    {
+        long mask = 0;
+
+        for (int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+            int bit = c >= 'a' && c <= 'z' ? c - 'a'
+                : c >= '0' && c <= '9' ? 26 + c - '0'
+                : c == ' ' ? 36
+                : 37 + c % 27;
+
+            mask |= 1L << bit;
+        }
+
+        return mask;
+    }
+
+    /**
+     * Whether the strings with signatures {@code a} and {@code b} may be
+     * within {@code k} edits.
+     */
+    public static boolean mayMatch(long a, long b, int k)
+    {
+        return Long.bitCount(a & ~b) <= k && Long.bitCount(b & ~a) <= k;
+    }
+
+    private long positions(char c)
+    {
+        return c < ascii.length ? ascii[c] : other.getOrDefault(c, 0L);
+    }
+
+    public int to(String text)
+    {
+        int m = pattern.length();
+        if (m == 0) return text.length();
+        if (m > Long.SIZE) return distance(pattern, text);
+
+        long last = 1L << (m - 1);
+        long pv = -1;
+        long mv = 0;
+        int score = m;
+
+        for (int j = 0; j < text.length(); j++)
+        {
+            long eq = positions(text.charAt(j));
+            long xv = eq | mv;
+            long xh = (((eq & pv) + pv) ^ pv) | eq;
+            long ph = mv | ~(xh | pv);
+            long mh = pv & xh;
+
+            if ((ph & last) != 0) score++;
+            else if ((mh & last) != 0) score--;
+
+            ph = (ph << 1) | 1;
+            mh <<= 1;
+            pv = mh | ~(xv | ph);
+            mv = ph & xv;
+        }
+
+        return score;
+    }
+
+    /**
+     * Levenshtein distance of two strings, for patterns too long for the
+     * bit-parallel algorithm.
+     */
+    static int distance(String a, String b)
+    {
+        int la = a.length();
+        int lb = b.length();
+
+        int[] prev = new int[lb + 1];
+        int[] cur = new int[lb + 1];
+
+        for (int j = 0; j <= lb; j++)
+        {
+            prev[j] = j;
+        }
+
+        for (int i = 1; i <= la; i++)
+        {
+            char ca = a.charAt(i - 1);
+            cur[0] = i;
+
+            for (int j = 1; j <= lb; j++)
+            {
+                int cost = ca == b.charAt(j - 1) ? 0 : 1;
+                cur[j] = Math.min(Math.min(cur[j - 1] + 1, prev[j] + 1),
+                    prev[j - 1] + cost);
+            }
+
+            int[] t = prev;
+            prev = cur;
+            cur = t;
+        }
+
+        return prev[lb];
+    }
+}
@@ -0,0 +1,102 @@
+package org.agilityfc.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations with logarithmic buckets.
+ * <p>
+ * Every power of two is split into {@value #SUB_BUCKETS} buckets, so a
+ * reported percentile is within 12.5% of the true value, and recording is a
+ * couple of bit operations and an atomic increment.
+ */
+public class Histogram
+{
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    /// Values below this get a bucket of their own.
+    private static final int LINEAR = 2 * SUB_BUCKETS;
+
+    private static final int BUCKETS =
+        LINEAR + (Long.SIZE - SUB_BITS - 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    private static int bucket(long v)
+    {
+        if (v < LINEAR) return (int) v;
+
+        int exp = Long.SIZE - 1 - Long.numberOfLeadingZeros(v);
+        int sub = (int) (v >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+
+        return LINEAR + (exp - SUB_BITS - 1) * SUB_BUCKETS + sub;
+    }
+
+    /// The largest value that falls into bucket {@code b}.
+    private static long upperBound(int b)
+    {
+        if (b < LINEAR) return b;
+
+        int exp = (b - LINEAR) / SUB_BUCKETS + SUB_BITS + 1;
+        long sub = (b - LINEAR) % SUB_BUCKETS;
+
+        return ((SUB_BUCKETS + sub + 1) << (exp - SUB_BITS)) - 1;
+    }
+
+    /**
+     * Records a duration, in microseconds.
+     */
+    public void record(long micros)
+    {
+        long v = Math.max(0, micros);
+
+        counts.incrementAndGet(bucket(v));
+        count.incrementAndGet();
+        max.accumulateAndGet(v, Math::max);
+    }
+
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    public long getMax()
+    {
+        return max.get();
+    }
+
+    /**
+     * Returns the value below which the fraction {@code p} of the recorded
+     * durations fall, or 0 if there are none.
+     */
+    public long percentile(double p)
+    {
+        long n = count.get();
+        if (n == 0) return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(p * n));
+        long seen = 0;
+
+        for (int b = 0; b < BUCKETS; b++)
+        {
+            seen += counts.get(b);
+            if (seen >= rank) return Math.min(upperBound(b), max.get());
+        }
+
+        return max.get();
+    }
+
+    public void reset()
+    {
+        for (int b = 0; b < BUCKETS; b++)
+        {
+            counts.set(b, 0);
+        }
+
+        count.set(0);
+        max.set(0);
+    }
+}
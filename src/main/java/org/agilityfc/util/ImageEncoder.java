@@ -0,0 +1,25 @@
+package org.agilityfc.util;
+
+import okio.Buffer;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+
+public interface ImageEncoder
+{
+    /// MIME type of the encoded image, e.g. {@code image/png}.
+    String contentType();
+
+    /// File extension of the encoded image, without the dot.
+    String extension();
+
+    void write(BufferedImage img, OutputStream out) throws IOException;
+
+    default byte[] encode(BufferedImage img) throws IOException
+    {
+        Buffer buffer = new Buffer();
+        write(img, buffer.outputStream());
+        return buffer.readByteArray();
+    }
+}
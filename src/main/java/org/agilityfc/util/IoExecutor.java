@@ -0,0 +1,48 @@
+package org.agilityfc.util;
+
+import javax.inject.Singleton;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the plugin's local file writes on a thread of their own, rather than
+ * on a pool shared with the rest of the client.
+ * <p>
+ * At most {@value #CAPACITY} writes can be waiting, after which whoever asks
+ * for another runs it on their own thread. A burst of writes, such as the
+ * screenshots of a whole batch, thus slows down its producer instead of being
+ * dropped.
+ */
+@Singleton
+public class IoExecutor implements Executor
+{
+    private static final int CAPACITY = 16;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private final ThreadPoolExecutor executor;
+
+    public IoExecutor()
+    {
+        executor = new ThreadPoolExecutor(
+            1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(CAPACITY),
+            r ->
+            {
+                Thread t = new Thread(r, "Agility FC I/O");
+                t.setDaemon(true);
+                return t;
+            },
+            new ThreadPoolExecutor.CallerRunsPolicy());
+
+        // NOTE: The thread exits when idle, so it does not outlive the plugin.
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public void execute(Runnable r)
+    {
+        executor.execute(r);
+    }
+}
@@ -0,0 +1,67 @@
+package org.agilityfc.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import net.runelite.client.game.ItemManager;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Guide prices of items, looked up through the {@link ItemManager} and kept
+ * for a few minutes.
+ * <p>
+ * Donation interfaces are priced again whenever their contents change, which
+ * mostly means the same handful of items, so they are canonicalized and
+ * looked up once rather than on every change. Keeping prices for a while also
+ * means a donation is valued the same when it is prescraped and when it is
+ * sent.
+ */
+@Singleton
+public class ItemPrices
+{
+    private static final long EXPIRY_MINUTES = 5;
+    private static final int CACHE_SIZE = 1024;
+
+    private final ItemManager itemManager;
+
+    /// Guide price by item id, as given, before canonicalization.
+    private final Cache<Integer, Long> cache = CacheBuilder.newBuilder()
+        .expireAfterWrite(EXPIRY_MINUTES, TimeUnit.MINUTES)
+        .maximumSize(CACHE_SIZE)
+        .build();
+
+    @Inject
+    public ItemPrices(ItemManager itemManager)
+    {
+        this.itemManager = itemManager;
+    }
+
+    /**
+     * Returns the canonical id of an item, e.g. the unnoted one for a noted
+     * item.
+     */
+    public int canonicalize(int id)
+    {
+        return itemManager.canonicalize(id);
+    }
+
+    /**
+     * Returns the guide price of a single item in GP, or 0 if it has none.
+     * Coins and platinum tokens are worth 1 and 1000.
+     */
+    public long price(int id)
+    {
+        try
+        {
+            return cache.get(id,
+                () -> (long) itemManager.getItemPrice(canonicalize(id)));
+        }
+        catch (ExecutionException e)
+        {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package org.agilityfc.util;
+
+import com.google.common.io.CountingInputStream;
+import lombok.extern.slf4j.Slf4j;
+import net.runelite.client.RuneLite;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Append-only file of records, behind a header of a magic number and a format
+ * version.
+ * <p>
+ * A record torn by a crash is cut off the tail when the file is replayed,
+ * since every complete record before it is still valid. A file that cannot be
+ * read at all is moved aside for manual recovery, rather than overwritten.
+ * <p>
+ * A journal is not thread-safe, and is meant to be confined to the thread
+ * of its owner.
+ */
+@Slf4j
+public class Journal
+{
+    /// Directory of every file the plugin keeps.
+    public static final File DIR = new File(RuneLite.RUNELITE_DIR, "agilityfc");
+
+    /// Reads a single record.
+    public interface Reader
+    {
+        void read(Input in, int version) throws IOException;
+    }
+
+    /// The file being replayed, which knows how much of it is left.
+    public static class Input extends DataInputStream
+    {
+        private final CountingInputStream counter;
+        private final long length;
+
+        private Input(CountingInputStream counter, long length)
+        {
+            super(counter);
+            this.counter = counter;
+            this.length = length;
+        }
+
+        /**
+         * Reads the number of items of {@code size} bytes that follow. A
+         * number that the rest of the file cannot hold is taken for a torn
+         * record, rather than allocated.
+         */
+        public int readCount(int size) throws IOException
+        {
+            int n = readInt();
+            if (n < 0 || (long) n * size > length - counter.getCount())
+            {
+                throw new EOFException("Bad count: " + n);
+            }
+
+            return n;
+        }
+    }
+
+    /// Writes any number of records.
+    public interface Writer
+    {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private final File file;
+
+    /// Name of the journal in log messages and errors.
+    private final String name;
+
+    /// The magic number, whose lowest byte is left for the version.
+    private final int magic;
+    private final int version;
+
+    private FileOutputStream fos;
+    private DataOutputStream out;
+
+    public Journal(String fileName, String name, int magic, int version)
+    {
+        assert (magic & 0xFF) == 0 && version > 0 && version <= 0xFF;
+
+        this.file = new File(DIR, fileName);
+        this.name = name;
+        this.magic = magic;
+        this.version = version;
+    }
+
+    public static void createDir() throws IOException
+    {
+        if (!DIR.exists() && !DIR.mkdirs())
+        {
+            throw new IOException("Could not create " + DIR);
+        }
+    }
+
+    public boolean isOpen()
+    {
+        return out != null;
+    }
+
+    /**
+     * Reads every record of the file with {@code reader}, if there is a file.
+     * If it cannot be read, it is moved aside, and the records read so far
+     * are left to the caller to keep or drop.
+     *
+     * @return whether every record was read.
+     */
+    public boolean replay(Reader reader) throws IOException
+    {
+        createDir();
+        if (!file.exists()) return true;
+
+        try
+        {
+            read(reader);
+            return true;
+        }
+        catch (IOException e)
+        {
+            File aside = new File(DIR,
+                file.getName() + "." + System.currentTimeMillis() + ".corrupt");
+            log.error("Could not read the {}, moving it to {}", name, aside, e);
+
+            Files.move(file.toPath(), aside.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+            return false;
+        }
+    }
+
+    private void read(Reader reader) throws IOException
+    {
+        long good = 0;
+
+        try (CountingInputStream cin = new CountingInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+             Input in = new Input(cin, file.length()))
+        {
+            int header = in.readInt();
+            int v = header & 0xFF;
+
+            if ((header & ~0xFF) != magic || v == 0 || v > version)
+            {
+                throw new IOException("Bad " + name + " header");
+            }
+
+            while (true)
+            {
+                good = cin.getCount();
+                reader.read(in, v);
+            }
+        }
+        catch (EOFException e)
+        {
+            if (good == 0) throw new IOException("Truncated " + name + " header", e);
+
+            // NOTE: Cut the torn record off, so that appends do not end up
+            // behind it.
+            long length = file.length();
+            if (good < length)
+            {
+                log.warn("Dropping {} trailing bytes of the {}",
+                    length - good, name);
+
+                try (RandomAccessFile f = new RandomAccessFile(file, "rw"))
+                {
+                    f.setLength(good);
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens the file for appending, creating it if there is none.
+     */
+    public void open() throws IOException
+    {
+        close();
+        createDir();
+
+        if (!file.exists())
+        {
+            rewrite(o -> {});
+            return;
+        }
+
+        fos = new FileOutputStream(file, true);
+        out = new DataOutputStream(new BufferedOutputStream(fos));
+    }
+
+    /**
+     * Replaces the file with one that holds only the records written by
+     * {@code writer}, and opens it for appending. The file is replaced
+     * atomically, so a crash leaves either the old or the new one.
+     */
+    public void rewrite(Writer writer) throws IOException
+    {
+        close();
+        createDir();
+
+        File tmp = new File(DIR, file.getName() + ".tmp");
+        try (FileOutputStream f = new FileOutputStream(tmp);
+             DataOutputStream o = new DataOutputStream(
+                 new BufferedOutputStream(f)))
+        {
+            o.writeInt(magic | version);
+            writer.write(o);
+
+            o.flush();
+            f.getFD().sync();
+        }
+
+        Files.move(tmp.toPath(), file.toPath(),
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+
+        fos = new FileOutputStream(file, true);
+        out = new DataOutputStream(new BufferedOutputStream(fos));
+    }
+
+    /**
+     * Appends the records written by {@code writer} and flushes them to the
+     * operating system.
+     */
+    public void append(Writer writer) throws IOException
+    {
+        if (out == null) throw new IOException("The " + name + " is not open");
+
+        writer.write(out);
+        out.flush();
+    }
+
+    /**
+     * Forces what was appended so far to the disk.
+     */
+    public void sync() throws IOException
+    {
+        if (out == null) throw new IOException("The " + name + " is not open");
+
+        out.flush();
+        fos.getFD().sync();
+    }
+
+    public void close()
+    {
+        if (out == null) return;
+
+        try
+        {
+            out.close();
+        }
+        catch (IOException e)
+        {
+            log.warn("Could not close the {}", name, e);
+        }
+
+        out = null;
+        fos = null;
+    }
+}
@@ -0,0 +1,150 @@
+package org.agilityfc.util;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.inject.Singleton;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histograms of the phases of scraping and sending a donation, and
+ * counters of failures and retries.
+ */
+@Slf4j
+@Singleton
+public class Metrics
+{
+    private static final DateTimeFormatter FILE_TIME =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss");
+
+    /// Phases of the pipeline, in the order they happen.
+    public static final String CLIENT_THREAD = "client thread";
+    public static final String FRAME_WAIT = "frame wait";
+    public static final String CROP = "crop";
+    public static final String SCRAPE = "scrape";
+    public static final String ENCODE = "encode";
+    public static final String SEND = "send";
+
+    public static final String SEND_FAILURES = "send failures";
+    public static final String BATCH_FAILURES = "batch failures";
+    public static final String OUTBOX_RETRIES = "outbox retries";
+    public static final String REJECTIONS = "rejections";
+    public static final String SCRAPE_FAILURES = "scrape failures";
+
+    // NOTE: Sorted maps keep the report in a stable order.
+    private final Map<String, Histogram> histograms = new ConcurrentSkipListMap<>();
+    private final Map<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+
+    public Histogram histogram(String name)
+    {
+        return histograms.computeIfAbsent(name, n -> new Histogram());
+    }
+
+    /**
+     * Records the time since {@code startNanos}, a {@link System#nanoTime}.
+     */
+    public void record(String name, long startNanos)
+    {
+        histogram(name).record(
+            TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+    }
+
+    public void increment(String name)
+    {
+        counters.computeIfAbsent(name, n -> new LongAdder()).increment();
+    }
+
+    /**
+     * Wraps an encoder so that its encoding time is recorded. Each screenshot
+     * is encoded once into memory, so this is only the time of that encode.
+     */
+    public ImageEncoder timed(ImageEncoder encoder)
+    {
+        return new ImageEncoder()
+        {
+            @Override
+            public String contentType()
+            {
+                return encoder.contentType();
+            }
+
+            @Override
+            public String extension()
+            {
+                return encoder.extension();
+            }
+
+            @Override
+            public void write(BufferedImage img, OutputStream out)
+                throws IOException
+            {
+                long start = System.nanoTime();
+                encoder.write(img, out);
+                record(ENCODE, start);
+            }
+        };
+    }
+
+    public void reset()
+    {
+        histograms.values().forEach(Histogram::reset);
+        counters.values().forEach(LongAdder::reset);
+    }
+
+    private static String millis(long micros)
+    {
+        return String.format("%.1f", micros / 1000.0);
+    }
+
+    /**
+     * Returns a plain text table of every histogram, in milliseconds, and
+     * every counter.
+     */
+    public String report()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-16s%6s%8s%8s%8s%8s%n",
+            "ms", "n", "p50", "p95", "p99", "max"));
+
+        histograms.forEach((name, h) -> sb.append(String.format(
+            "%-16s%6d%8s%8s%8s%8s%n",
+            name, h.getCount(),
+            millis(h.percentile(0.50)),
+            millis(h.percentile(0.95)),
+            millis(h.percentile(0.99)),
+            millis(h.getMax()))));
+
+        if (!counters.isEmpty()) sb.append(String.format("%n"));
+        counters.forEach((name, c) -> sb.append(String.format(
+            "%-16s%6d%n", name, c.sum())));
+
+        return sb.toString();
+    }
+
+    /**
+     * Writes the report to a new file in the plugin's directory.
+     *
+     * @return the file written to.
+     */
+    public File dump() throws IOException
+    {
+        Journal.createDir();
+
+        File f = new File(Journal.DIR,
+            "metrics-" + LocalDateTime.now().format(FILE_TIME) + ".txt");
+        Files.write(f.toPath(), report().getBytes(StandardCharsets.UTF_8));
+
+        log.info("Wrote metrics to {}", f);
+        return f;
+    }
+}
@@ -1,11 +1,10 @@
 package org.agilityfc.util;
 
-import com.google.common.collect.EvictingQueue;
-import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 import net.runelite.api.Client;
 import net.runelite.api.Friend;
 import net.runelite.api.FriendsChatManager;
+import net.runelite.api.GameState;
 import net.runelite.api.Nameable;
 import net.runelite.api.NameableContainer;
 import net.runelite.api.Player;
@@ -13,40 +12,75 @@ import net.runelite.api.WorldView;
 import net.runelite.api.clan.ClanID;
 import net.runelite.api.clan.ClanMember;
 import net.runelite.api.clan.ClanSettings;
+import net.runelite.api.events.ClanChannelChanged;
+import net.runelite.api.events.ClanMemberJoined;
+import net.runelite.api.events.FriendListChanged;
+import net.runelite.api.events.FriendsChatChanged;
+import net.runelite.api.events.FriendsChatMemberJoined;
+import net.runelite.api.events.FriendsChatMemberLeft;
+import net.runelite.api.events.GameStateChanged;
+import net.runelite.api.events.GameTick;
+import net.runelite.api.events.PlayerDespawned;
+import net.runelite.api.events.PlayerSpawned;
+import net.runelite.api.events.RemovedFriend;
+import net.runelite.client.callback.ClientThread;
+import net.runelite.client.eventbus.Subscribe;
 
 import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.swing.JMenuItem;
+import javax.swing.JPopupMenu;
 import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.Document;
 import javax.swing.text.JTextComponent;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Objects;
-import java.util.Optional;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 // NOTE: Adapted from `net.runelite.client.plugins.hiscore.NameAutocompleter`.
 
 @Slf4j
+@Singleton
 public class NameAutocompleter implements KeyListener
 {
-    /**
-     * Non-breaking space character.
-     */
-    private static final String NBSP = Character.toString((char)160);
-
     /**
      * Character class for characters that cannot be in an RSN.
      */
     private static final Pattern INVALID_CHARS = Pattern.compile("[^a-zA-Z0-9_ -]");
 
-    private static final int MAX_SEARCH_HISTORY = 25;
+    private static final int MAX_SUGGESTIONS = 5;
+
+    /// Most edits a suggestion may be away from the typed name.
+    private static final int MAX_SUGGESTION_DISTANCE = 2;
+
+    /// Typing pause after which suggestions are shown.
+    private static final int SUGGESTION_DELAY_MS = 300;
 
     @Inject
     private Client client;
 
-    private final EvictingQueue<String> searchHistory = EvictingQueue.create(MAX_SEARCH_HISTORY);
+    @Inject
+    private ClientThread clientThread;
+
+    private final DonorDirectory donors;
+
+    /**
+     * Index of known names, confined to the client thread.
+     */
+    private final NameIndex index = new NameIndex();
+
+    /**
+     * Latest snapshot of {@link #index}, published by the client thread and
+     * read without locking by the EDT.
+     */
+    private volatile NameIndex.Snapshot snapshot = NameIndex.Snapshot.EMPTY;
 
     /**
      * The name currently being autocompleted.
@@ -54,9 +88,25 @@ public class NameAutocompleter implements KeyListener
     private String autocompleteName;
 
     /**
-     * Pattern for the name currently being autocompleted.
+     * Normalised form of the name currently being autocompleted.
      */
-    private Pattern autocompleteNamePattern;
+    private String autocompleteNameKey;
+
+    private JPopupMenu suggestionMenu;
+    private Timer suggestionTimer;
+
+    @Inject
+    public NameAutocompleter(DonorDirectory donors)
+    {
+        this.donors = donors;
+
+        // Past donors are also offered as fuzzy suggestions.
+        donors.addListener(names -> clientThread.invoke(() ->
+        {
+            names.forEach(n -> index.add(NameIndex.Source.DONORS, n));
+            publish();
+        }));
+    }
 
     @Override
     public void keyPressed(KeyEvent e)
@@ -66,6 +116,61 @@ public class NameAutocompleter implements KeyListener
     @Override
     public void keyReleased(KeyEvent e)
     {
+        final JTextComponent input = (JTextComponent)e.getSource();
+
+        if (suggestionTimer != null) suggestionTimer.stop();
+        if (suggestionMenu != null) suggestionMenu.setVisible(false);
+
+        suggestionTimer = new Timer(SUGGESTION_DELAY_MS, ev -> showSuggestions(input));
+        suggestionTimer.setRepeats(false);
+        suggestionTimer.start();
+    }
+
+    /**
+     * Finds known names close to {@code name}, for when it was mistyped.
+     *
+     * @return the closest names, or an empty list if {@code name} itself
+     * is known.
+     */
+    public List<String> suggest(String name)
+    {
+        if (name.isBlank()) return List.of();
+
+        List<String> r = snapshot.suggest(
+            name, MAX_SUGGESTION_DISTANCE, MAX_SUGGESTIONS);
+
+        // Exact matches sort first.
+        if (!r.isEmpty() && NameIndex.normalize(r.get(0)).equals(NameIndex.normalize(name)))
+        {
+            return List.of();
+        }
+
+        return r;
+    }
+
+    private void showSuggestions(JTextComponent input)
+    {
+        if (!input.isShowing() || !input.isEditable()) return;
+
+        List<String> names = suggest(input.getText());
+        if (names.isEmpty()) return;
+
+        if (suggestionMenu == null)
+        {
+            suggestionMenu = new JPopupMenu();
+            // NOTE: Keep the focus in the input so typing can continue.
+            suggestionMenu.setFocusable(false);
+        }
+
+        suggestionMenu.removeAll();
+        for (String name : names)
+        {
+            JMenuItem item = new JMenuItem(name);
+            item.addActionListener(ev -> input.setText(name));
+            suggestionMenu.add(item);
+        }
+
+        suggestionMenu.show(input, 0, input.getHeight());
     }
 
     @Override
@@ -92,7 +197,7 @@ public class NameAutocompleter implements KeyListener
         }
 
         // Check if we are already autocompleting.
-        if (autocompleteName != null && autocompleteNamePattern.matcher(inputText).matches())
+        if (autocompleteName != null && autocompleteNameKey.equals(NameIndex.normalize(inputText)))
         {
             if (isExpectedNext(input, charToInsert))
             {
@@ -154,97 +259,179 @@ public class NameAutocompleter implements KeyListener
 
     private boolean findAutocompleteName(String nameStart)
     {
-        final Pattern pattern;
-        Optional<String> autocompleteName;
-
-        // Pattern to match names that start with nameStart.
-        // Allows spaces to be represented as common whitespaces, underscores,
-        // hyphens, or non-breaking spaces.
-        // Matching non-breaking spaces is necessary because the API
-        // returns non-breaking spaces when a name has whitespace.
-        pattern = Pattern.compile(
-            "(?i)^" + nameStart.replaceAll("[ _-]", "[ _" + NBSP + "-]") + ".+?");
-
-        // Search all previous successful queries
-        autocompleteName = searchHistory.stream()
-            .filter(n -> pattern.matcher(n).matches())
-            .findFirst();
-
-        // Search friends if previous searches weren't matched
-        if (!autocompleteName.isPresent())
+        // NOTE: Regular donors are ranked by how often they donate, and
+        // take precedence over names that merely sort first.
+        String name = donors.complete(nameStart);
+        if (name == null) name = snapshot.find(nameStart);
+
+        if (name != null)
         {
-            NameableContainer<Friend> friendContainer = client.getFriendContainer();
-            if (friendContainer != null)
-            {
-                autocompleteName = Arrays.stream(friendContainer.getMembers())
-                    .map(Nameable::getName)
-                    .filter(n -> pattern.matcher(n).matches())
-                    .findFirst();
-            }
+            this.autocompleteName = name;
+            this.autocompleteNameKey = NameIndex.normalize(name);
         }
-
-        // Search friends chat if a friend wasn't found
-        if (!autocompleteName.isPresent())
+        else
         {
-            final FriendsChatManager friendsChatManager = client.getFriendsChatManager();
-            if (friendsChatManager != null)
-            {
-                autocompleteName = Arrays.stream(friendsChatManager.getMembers())
-                    .map(Nameable::getName)
-                    .filter(n -> pattern.matcher(n).matches())
-                    .findFirst();
-            }
+            this.autocompleteName = null;
+            this.autocompleteNameKey = null;
         }
 
-        // Search clans
-        if (!autocompleteName.isPresent())
+        return name != null;
+    }
+
+    private void publish()
+    {
+        snapshot = index.snapshot();
+    }
+
+    private static List<String> names(Nameable[] members)
+    {
+        List<String> r = new ArrayList<>(members.length);
+        for (Nameable n : members)
         {
-            final ClanSettings[] clanSettings = {
-                client.getClanSettings(ClanID.CLAN),
-                client.getClanSettings(ClanID.GROUP_IRONMAN),
-                client.getGuestClanSettings()
-            };
-            autocompleteName = Arrays.stream(clanSettings)
-                .filter(Objects::nonNull)
-                .flatMap(cs -> cs.getMembers().stream())
-                .map(ClanMember::getName)
-                .filter(n -> pattern.matcher(n).matches())
-                .findFirst();
+            r.add(n.getName());
         }
 
-        // Search cached players if a friend wasn't found
-        if (!autocompleteName.isPresent())
-        {
-            WorldView wv = client.getTopLevelWorldView();
-            autocompleteName = wv.players().stream()
+        return r;
+    }
+
+    private void rebuildFriends()
+    {
+        NameableContainer<Friend> friendContainer = client.getFriendContainer();
+        index.replace(NameIndex.Source.FRIENDS, friendContainer != null
+            ? names(friendContainer.getMembers())
+            : List.of());
+    }
+
+    private void rebuildFriendsChat()
+    {
+        final FriendsChatManager friendsChatManager = client.getFriendsChatManager();
+        index.replace(NameIndex.Source.FRIENDS_CHAT, friendsChatManager != null
+            ? names(friendsChatManager.getMembers())
+            : List.of());
+    }
+
+    private void rebuildClans()
+    {
+        final ClanSettings[] clanSettings = {
+            client.getClanSettings(ClanID.CLAN),
+            client.getClanSettings(ClanID.GROUP_IRONMAN),
+            client.getGuestClanSettings()
+        };
+
+        index.replace(NameIndex.Source.CLAN, Arrays.stream(clanSettings)
+            .filter(Objects::nonNull)
+            .flatMap(cs -> cs.getMembers().stream())
+            .map(ClanMember::getName)
+            .collect(Collectors.toList()));
+    }
+
+    private void rebuildPlayers()
+    {
+        WorldView wv = client.getTopLevelWorldView();
+        index.replace(NameIndex.Source.PLAYERS, wv == null ? List.of()
+            : wv.players().stream()
                 .filter(Objects::nonNull)
                 .map(Player::getName)
-                .filter(Objects::nonNull)
-                .filter(n -> pattern.matcher(n).matches())
-                .findFirst();
-        }
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Rebuilds every source from the client. Must be called on the client
+     * thread, after that the index is kept up to date from events.
+     */
+    public void rebuild()
+    {
+        rebuildFriends();
+        rebuildFriendsChat();
+        rebuildClans();
+        rebuildPlayers();
+        publish();
+    }
+
+    public void clear()
+    {
+        index.clear(NameIndex.Source.FRIENDS);
+        index.clear(NameIndex.Source.FRIENDS_CHAT);
+        index.clear(NameIndex.Source.CLAN);
+        index.clear(NameIndex.Source.PLAYERS);
+        publish();
+    }
+
+    @Subscribe
+    public void onGameTick(GameTick e)
+    {
+        // NOTE: Changes are published at most once per tick, a busy world
+        // can spawn and despawn dozens of players per tick.
+        if (index.isDirty()) publish();
+    }
 
-        if (autocompleteName.isPresent())
+    @Subscribe
+    public void onGameStateChanged(GameStateChanged e)
+    {
+        if (e.getGameState() == GameState.LOGGED_IN)
         {
-            this.autocompleteName = autocompleteName.get().replace(NBSP, " ");
-            this.autocompleteNamePattern = Pattern.compile(
-                "(?i)^" + this.autocompleteName.replaceAll("[ _-]", "[ _-]") + "$");
+            rebuild();
         }
-        else
+        else if (e.getGameState() == GameState.LOGIN_SCREEN)
         {
-            this.autocompleteName = null;
-            this.autocompleteNamePattern = null;
+            clear();
         }
+    }
 
-        return autocompleteName.isPresent();
+    @Subscribe
+    public void onFriendListChanged(FriendListChanged e)
+    {
+        rebuildFriends();
     }
 
-    void addToSearchHistory(@NonNull String name)
+    @Subscribe
+    public void onRemovedFriend(RemovedFriend e)
     {
-        if (!searchHistory.contains(name))
-        {
-            searchHistory.offer(name);
-        }
+        index.remove(NameIndex.Source.FRIENDS, e.getNameable().getName());
+    }
+
+    @Subscribe
+    public void onFriendsChatChanged(FriendsChatChanged e)
+    {
+        rebuildFriendsChat();
+    }
+
+    @Subscribe
+    public void onFriendsChatMemberJoined(FriendsChatMemberJoined e)
+    {
+        index.add(NameIndex.Source.FRIENDS_CHAT, e.getMember().getName());
+    }
+
+    @Subscribe
+    public void onFriendsChatMemberLeft(FriendsChatMemberLeft e)
+    {
+        index.remove(NameIndex.Source.FRIENDS_CHAT, e.getMember().getName());
+    }
+
+    @Subscribe
+    public void onClanChannelChanged(ClanChannelChanged e)
+    {
+        rebuildClans();
+    }
+
+    @Subscribe
+    public void onClanMemberJoined(ClanMemberJoined e)
+    {
+        // NOTE: Members that leave the channel stay in the clan, so only
+        // joins are of interest.
+        index.add(NameIndex.Source.CLAN, e.getClanMember().getName());
+    }
+
+    @Subscribe
+    public void onPlayerSpawned(PlayerSpawned e)
+    {
+        index.add(NameIndex.Source.PLAYERS, e.getPlayer().getName());
+    }
+
+    @Subscribe
+    public void onPlayerDespawned(PlayerDespawned e)
+    {
+        index.remove(NameIndex.Source.PLAYERS, e.getPlayer().getName());
     }
 
     private boolean isExpectedNext(JTextComponent input, String nextChar)
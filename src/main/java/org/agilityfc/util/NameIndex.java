@@ -0,0 +1,334 @@
+package org.agilityfc.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Prefix index of display names from several sources.
+ * <p>
+ * Names are kept sorted by their normalised form, so a prefix lookup is a
+ * single ceiling search per source. Sources are searched in order of
+ * priority, and are updated one name at a time as players come and go.
+ * <p>
+ * The index itself is not thread-safe and is meant to be confined to the
+ * client thread. Other threads search immutable {@link Snapshot}s of it, which
+ * are taken incrementally: only the sources that changed are copied again, and
+ * the signatures used for fuzzy matching are computed once per name.
+ */
+public class NameIndex
+{
+    /// Sources of names, in order of priority.
+    public enum Source
+    {
+        DONORS,
+        FRIENDS,
+        FRIENDS_CHAT,
+        CLAN,
+        PLAYERS,
+    }
+
+    private static final char NBSP = (char) 160;
+
+    /// A display name and the signature of its normalised form.
+    private static final class Name
+    {
+        final String display;
+        final long signature;
+
+        Name(String key, String display)
+        {
+            this.display = display;
+            this.signature = EditDistance.signature(key);
+        }
+    }
+
+    /**
+     * Immutable copy of the index, safe to search from any thread.
+     */
+    public static final class Snapshot
+    {
+        public static final Snapshot EMPTY = new Snapshot(
+            0, new String[Source.values().length][0],
+            new String[Source.values().length][0],
+            new long[Source.values().length][0]);
+
+        private final long version;
+
+        /// Sorted normalised names, per source.
+        private final String[][] keys;
+
+        /// Display names, in the same order as {@code keys}.
+        private final String[][] names;
+
+        /// Character signatures of {@code keys}, for fuzzy matching.
+        private final long[][] signatures;
+
+        // NOTE: The per-source arrays are never modified, so snapshots share
+        // those of the sources that did not change.
+        private Snapshot(
+            long version, String[][] keys, String[][] names, long[][] signatures)
+        {
+            this.version = version;
+            this.keys = keys;
+            this.names = names;
+            this.signatures = signatures;
+        }
+
+        public long getVersion()
+        {
+            return version;
+        }
+
+        /**
+         * @see NameIndex#find
+         */
+        public String find(String prefix)
+        {
+            String key = normalize(prefix);
+
+            for (int s = 0; s < keys.length; s++)
+            {
+                String[] ks = keys[s];
+
+                // The first key strictly greater than the prefix.
+                int i = Arrays.binarySearch(ks, key);
+                i = i >= 0 ? i + 1 : -i - 1;
+
+                if (i < ks.length && ks[i].startsWith(key)) return names[s][i];
+            }
+
+            return null;
+        }
+
+        /**
+         * Finds up to {@code limit} names within {@code maxDistance} edits
+         * of {@code name}, closest first and then by priority of source.
+         */
+        public List<String> suggest(String name, int maxDistance, int limit)
+        {
+            String query = normalize(name);
+            EditDistance dist = new EditDistance(query);
+            long sig = EditDistance.signature(query);
+
+            List<int[]> matches = new ArrayList<>();
+
+            for (int s = 0; s < keys.length; s++)
+            {
+                String[] ks = keys[s];
+                long[] sigs = signatures[s];
+
+                for (int i = 0; i < ks.length; i++)
+                {
+                    // NOTE: Both filters are a few instructions, and reject
+                    // nearly every name before the distance is computed.
+                    if (Math.abs(ks[i].length() - query.length()) > maxDistance ||
+                        !EditDistance.mayMatch(sig, sigs[i], maxDistance))
+                    {
+                        continue;
+                    }
+
+                    int d = dist.to(ks[i]);
+                    if (d <= maxDistance) matches.add(new int[]{s, i, d});
+                }
+            }
+
+            // The sort is stable, so ties keep their source order.
+            matches.sort(Comparator.comparingInt(m -> m[2]));
+
+            Set<String> seen = new HashSet<>();
+            List<String> r = new ArrayList<>(limit);
+
+            for (int[] m : matches)
+            {
+                if (r.size() == limit) break;
+                if (seen.add(keys[m[0]][m[1]])) r.add(names[m[0]][m[1]]);
+            }
+
+            return r;
+        }
+    }
+
+    private final List<NavigableMap<String, Name>> sources = new ArrayList<>();
+    private long version;
+
+    /// Whether each source changed since the last snapshot.
+    private final boolean[] dirty = new boolean[Source.values().length];
+    private Snapshot snapshot = Snapshot.EMPTY;
+
+    public NameIndex()
+    {
+        for (int i = 0; i < Source.values().length; i++)
+        {
+            sources.add(new TreeMap<>());
+        }
+    }
+
+    /**
+     * Folds case, and spaces, underscores, hyphens and non-breaking spaces,
+     * which are all interchangeable in a name.
+     */
+    public static String normalize(String name)
+    {
+        char[] cs = new char[name.length()];
+
+        for (int i = 0; i < cs.length; i++)
+        {
+            char c = name.charAt(i);
+            cs[i] = c == '_' || c == '-' || c == NBSP
+                ? ' '
+                : Character.toLowerCase(c);
+        }
+
+        return new String(cs);
+    }
+
+    private NavigableMap<String, Name> source(Source s)
+    {
+        return sources.get(s.ordinal());
+    }
+
+    /**
+     * Adds a name to {@code m}, reusing the entry of {@code old} if it
+     * already has the name. Returns whether {@code m} changed.
+     */
+    private static boolean put(
+        NavigableMap<String, Name> m, NavigableMap<String, Name> old,
+        String name)
+    {
+        String key = normalize(name);
+        String display = name.replace(NBSP, ' ');
+
+        Name n = old.get(key);
+        if (n == null || !n.display.equals(display)) n = new Name(key, display);
+
+        return m.put(key, n) != n;
+    }
+
+    public void add(Source s, String name)
+    {
+        if (name == null) return;
+
+        NavigableMap<String, Name> m = source(s);
+        dirty[s.ordinal()] |= put(m, m, name);
+    }
+
+    public void remove(Source s, String name)
+    {
+        if (name == null) return;
+        dirty[s.ordinal()] |= source(s).remove(normalize(name)) != null;
+    }
+
+    /**
+     * Replaces all names of a source, for sources that are only ever
+     * reported as a whole. Names that were already there keep their entry,
+     * and a source that ends up the same is not copied again.
+     */
+    public void replace(Source s, Collection<String> names)
+    {
+        NavigableMap<String, Name> old = source(s);
+        NavigableMap<String, Name> m = new TreeMap<>();
+
+        for (String name : names)
+        {
+            if (name != null) put(m, old, name);
+        }
+
+        // NOTE: Unchanged names map to the very same entries, so comparing
+        // the entries by identity is enough.
+        boolean changed = m.size() != old.size();
+        if (!changed)
+        {
+            for (Map.Entry<String, Name> e : m.entrySet())
+            {
+                if (old.get(e.getKey()) != e.getValue())
+                {
+                    changed = true;
+                    break;
+                }
+            }
+        }
+
+        sources.set(s.ordinal(), m);
+        dirty[s.ordinal()] |= changed;
+    }
+
+    public void clear(Source s)
+    {
+        NavigableMap<String, Name> m = source(s);
+        dirty[s.ordinal()] |= !m.isEmpty();
+        m.clear();
+    }
+
+    public boolean isDirty()
+    {
+        for (boolean d : dirty)
+        {
+            if (d) return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns an immutable copy of the index, only copying the sources that
+     * have changed since the last call.
+     */
+    public Snapshot snapshot()
+    {
+        if (!isDirty()) return snapshot;
+
+        int n = sources.size();
+        String[][] keys = snapshot.keys.clone();
+        String[][] names = snapshot.names.clone();
+        long[][] signatures = snapshot.signatures.clone();
+
+        for (int i = 0; i < n; i++)
+        {
+            if (!dirty[i]) continue;
+
+            NavigableMap<String, Name> m = sources.get(i);
+            keys[i] = new String[m.size()];
+            names[i] = new String[m.size()];
+            signatures[i] = new long[m.size()];
+
+            int j = 0;
+            for (Map.Entry<String, Name> e : m.entrySet())
+            {
+                keys[i][j] = e.getKey();
+                names[i][j] = e.getValue().display;
+                signatures[i][j] = e.getValue().signature;
+                j++;
+            }
+
+            dirty[i] = false;
+        }
+
+        snapshot = new Snapshot(++version, keys, names, signatures);
+        return snapshot;
+    }
+
+    /**
+     * Finds a name that is longer than and starts with {@code prefix}, from
+     * the source with the highest priority.
+     */
+    public String find(String prefix)
+    {
+        String key = normalize(prefix);
+
+        for (NavigableMap<String, Name> m : sources)
+        {
+            Map.Entry<String, Name> e = m.higherEntry(key);
+            if (e != null && e.getKey().startsWith(key)) return e.getValue().display;
+        }
+
+        return null;
+    }
+}
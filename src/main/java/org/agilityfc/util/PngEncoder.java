@@ -0,0 +1,639 @@
+package org.agilityfc.util;
+
+import okio.Buffer;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * PNG encoder with a selectable deflate level and filter strategy.
+ * <p>
+ * Opaque images are written as 8-bit RGB instead of RGBA, and images with at
+ * most 256 colours can be written palette-indexed. Large images are
+ * split into strips of rows that are filtered and deflated in parallel; the
+ * strips are joined into a single zlib stream by ending all but the last one
+ * with a sync flush, the same way pigz does it.
+ */
+public class PngEncoder implements ImageEncoder
+{
+    /// The ordinal of each concrete filter is its PNG filter type.
+    public enum Filter
+    {
+        NONE,
+        SUB,
+        UP,
+        AVERAGE,
+        PAETH,
+        /// Picks the filter with the smallest sum of absolute differences
+        /// for each row, as recommended by the PNG specification.
+        ADAPTIVE,
+    }
+
+    private static final byte[] SIGNATURE = {
+        (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    private static final int COLOR_TYPE_RGB = 2;
+    private static final int COLOR_TYPE_INDEXED = 3;
+    private static final int COLOR_TYPE_RGBA = 6;
+
+    private static final int MAX_PALETTE_SIZE = 256;
+
+    /**
+     * Uncompressed bytes per strip. Smaller strips parallelise better but
+     * lose more context at every boundary.
+     */
+    private static final int STRIP_BYTES = 256 * 1024;
+
+    private final int level;
+    private final Filter filter;
+    private final boolean parallel;
+    private final boolean indexed;
+
+    public PngEncoder(int level, Filter filter, boolean parallel)
+    {
+        this(level, filter, parallel, false);
+    }
+
+    /**
+     * @param indexed whether to write images with few enough colours with a
+     * palette. Other images are written as truecolour either way.
+     */
+    public PngEncoder(
+        int level, Filter filter, boolean parallel, boolean indexed)
+    {
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION)
+        {
+            throw new IllegalArgumentException("Invalid deflate level: " + level);
+        }
+
+        this.level = level;
+        this.filter = filter;
+        this.parallel = parallel;
+        this.indexed = indexed;
+    }
+
+    private static class Strip
+    {
+        byte[] data;
+        long adler;
+        long length;
+    }
+
+    /**
+     * Direct view of an {@code int} ARGB or RGB raster, or {@code null} if the
+     * image has to go through {@link BufferedImage#getRGB}.
+     */
+    private static class Pixels
+    {
+        final int[] data;
+        final int offset;
+        final int stride;
+
+        private Pixels(int[] data, int offset, int stride)
+        {
+            this.data = data;
+            this.offset = offset;
+            this.stride = stride;
+        }
+
+        static Pixels of(BufferedImage img)
+        {
+            int type = img.getType();
+            if (type != BufferedImage.TYPE_INT_RGB &&
+                type != BufferedImage.TYPE_INT_ARGB)
+            {
+                return null;
+            }
+
+            Raster raster = img.getRaster();
+            if (!(raster.getSampleModel() instanceof SinglePixelPackedSampleModel))
+            {
+                return null;
+            }
+
+            DataBufferInt db = (DataBufferInt) raster.getDataBuffer();
+            int stride = ((SinglePixelPackedSampleModel) raster.getSampleModel())
+                .getScanlineStride();
+
+            // NOTE: Sub-images share their parent's buffer, so account for
+            // where the raster starts inside of it.
+            int offset = db.getOffset()
+                - raster.getSampleModelTranslateY() * stride
+                - raster.getSampleModelTranslateX();
+
+            return new Pixels(db.getData(), offset, stride);
+        }
+    }
+
+    /**
+     * Palette of at most {@link #MAX_PALETTE_SIZE} ARGB colours with an
+     * open-addressing lookup table.
+     */
+    private static class Palette
+    {
+        private static final int TABLE_SIZE = 1024;
+
+        final int[] colors = new int[MAX_PALETTE_SIZE];
+        int size;
+
+        /// Forces the alpha of pixels read straight from an RGB raster.
+        final int opaqueMask;
+
+        private final int[] keys = new int[TABLE_SIZE];
+        private final short[] slots = new short[TABLE_SIZE];
+
+        private Palette(int opaqueMask)
+        {
+            this.opaqueMask = opaqueMask;
+        }
+
+        private static int hash(int argb)
+        {
+            int h = argb * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & (TABLE_SIZE - 1);
+        }
+
+        /// Returns the colour's index, adding it if there is room, or -1.
+        int index(int argb)
+        {
+            for (int i = hash(argb); ; i = (i + 1) & (TABLE_SIZE - 1))
+            {
+                if (slots[i] == 0)
+                {
+                    if (size == MAX_PALETTE_SIZE) return -1;
+
+                    keys[i] = argb;
+                    colors[size] = argb;
+                    slots[i] = (short) ++size;
+                    return size - 1;
+                }
+
+                if (keys[i] == argb) return slots[i] - 1;
+            }
+        }
+
+        static Palette of(BufferedImage img, Pixels px)
+        {
+            int w = img.getWidth();
+            int h = img.getHeight();
+            int[] row = px == null ? new int[w] : null;
+            Palette p = new Palette(
+                img.getColorModel().hasAlpha() ? 0 : 0xFF000000);
+
+            for (int y = 0; y < h; y++)
+            {
+                int[] data = row;
+                int off = 0;
+
+                if (px == null)
+                {
+                    img.getRGB(0, y, w, 1, row, 0, w);
+                }
+                else
+                {
+                    data = px.data;
+                    off = px.offset + y * px.stride;
+                }
+
+                int last = ~(data[off] | p.opaqueMask);
+                for (int x = 0; x < w; x++)
+                {
+                    int c = data[off + x] | p.opaqueMask;
+                    if (c == last) continue;
+
+                    if (p.index(c) == -1) return null;
+                    last = c;
+                }
+            }
+
+            return p;
+        }
+
+        byte[] plte()
+        {
+            byte[] r = new byte[size * 3];
+            for (int i = 0, j = 0; i < size; i++)
+            {
+                r[j++] = (byte) (colors[i] >> 16);
+                r[j++] = (byte) (colors[i] >> 8);
+                r[j++] = (byte) colors[i];
+            }
+
+            return r;
+        }
+
+        /// Returns the alpha of each entry up to the last translucent one, or
+        /// {@code null} if the palette is opaque.
+        byte[] trns()
+        {
+            int n = 0;
+            for (int i = 0; i < size; i++)
+            {
+                if ((colors[i] >>> 24) != 0xFF) n = i + 1;
+            }
+
+            if (n == 0) return null;
+
+            byte[] r = new byte[n];
+            for (int i = 0; i < n; i++)
+            {
+                r[i] = (byte) (colors[i] >>> 24);
+            }
+
+            return r;
+        }
+    }
+
+    private static boolean isOpaque(BufferedImage img, Pixels px)
+    {
+        if (!img.getColorModel().hasAlpha()) return true;
+
+        int w = img.getWidth();
+        int h = img.getHeight();
+        int[] row = px == null ? new int[w] : null;
+
+        for (int y = 0; y < h; y++)
+        {
+            int[] data = row;
+            int off = 0;
+
+            if (px == null)
+            {
+                img.getRGB(0, y, w, 1, row, 0, w);
+            }
+            else
+            {
+                data = px.data;
+                off = px.offset + y * px.stride;
+            }
+
+            for (int x = 0; x < w; x++)
+            {
+                if ((data[off + x] >>> 24) != 0xFF) return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static void readRow(
+        BufferedImage img, Pixels px, Palette palette,
+        int y, int bpp, int[] argb, byte[] out)
+    {
+        int w = img.getWidth();
+        int[] data = argb;
+        int off = 0;
+
+        if (px == null)
+        {
+            img.getRGB(0, y, w, 1, argb, 0, w);
+        }
+        else
+        {
+            data = px.data;
+            off = px.offset + y * px.stride;
+        }
+
+        if (palette != null)
+        {
+            for (int x = 0; x < w; x++)
+            {
+                out[x] = (byte) palette.index(data[off + x] | palette.opaqueMask);
+            }
+
+            return;
+        }
+
+        for (int x = 0, i = 0; x < w; x++)
+        {
+            int p = data[off + x];
+            out[i++] = (byte) (p >> 16);
+            out[i++] = (byte) (p >> 8);
+            out[i++] = (byte) p;
+            if (bpp == 4) out[i++] = (byte) (p >>> 24);
+        }
+    }
+
+    private static int paeth(int a, int b, int c)
+    {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+
+        if (pa <= pb && pa <= pc) return a;
+        if (pb <= pc) return b;
+        return c;
+    }
+
+    /**
+     * Filters {@code cur} into {@code out} starting at {@code pos} and returns
+     * the sum of absolute differences, used by the adaptive strategy.
+     */
+    private static long applyFilter(
+        Filter f, byte[] cur, byte[] prev, int bpp, byte[] out, int pos)
+    {
+        out[pos++] = (byte) f.ordinal();
+        long sum = 0;
+
+        for (int i = 0; i < cur.length; i++)
+        {
+            int x = cur[i] & 0xFF;
+            int a = i >= bpp ? cur[i - bpp] & 0xFF : 0;
+            int b = prev[i] & 0xFF;
+            int c = i >= bpp ? prev[i - bpp] & 0xFF : 0;
+
+            int v;
+            switch (f)
+            {
+                case SUB:
+                    v = x - a;
+                    break;
+                case UP:
+                    v = x - b;
+                    break;
+                case AVERAGE:
+                    v = x - ((a + b) >> 1);
+                    break;
+                case PAETH:
+                    v = x - paeth(a, b, c);
+                    break;
+                default:
+                    v = x;
+                    break;
+            }
+
+            out[pos++] = (byte) v;
+            sum += Math.abs((byte) v);
+        }
+
+        return sum;
+    }
+
+    private byte[] filterRows(
+        BufferedImage img, Pixels px, Palette palette, int y0, int y1, int bpp)
+    {
+        // NOTE: The PNG specification recommends no filtering for palette
+        // images, since neighbouring indices need not be similar colours.
+        Filter filter = palette != null ? Filter.NONE : this.filter;
+
+        int rowBytes = img.getWidth() * bpp;
+        int[] argb = new int[img.getWidth()];
+        byte[] prev = new byte[rowBytes];
+        byte[] cur = new byte[rowBytes];
+        byte[] out = new byte[(y1 - y0) * (rowBytes + 1)];
+        byte[] best = filter == Filter.ADAPTIVE ? new byte[rowBytes + 1] : null;
+        byte[] tmp = filter == Filter.ADAPTIVE ? new byte[rowBytes + 1] : null;
+
+        // NOTE: The filters look at the row above, even across strips.
+        if (y0 > 0) readRow(img, px, palette, y0 - 1, bpp, argb, prev);
+
+        for (int y = y0, pos = 0; y < y1; y++, pos += rowBytes + 1)
+        {
+            readRow(img, px, palette, y, bpp, argb, cur);
+
+            if (filter == Filter.ADAPTIVE)
+            {
+                long min = Long.MAX_VALUE;
+                for (Filter f : Filter.values())
+                {
+                    if (f == Filter.ADAPTIVE) continue;
+
+                    long sum = applyFilter(f, cur, prev, bpp, tmp, 0);
+                    if (sum < min)
+                    {
+                        min = sum;
+                        byte[] t = best;
+                        best = tmp;
+                        tmp = t;
+                    }
+                }
+
+                System.arraycopy(best, 0, out, pos, rowBytes + 1);
+            }
+            else
+            {
+                applyFilter(filter, cur, prev, bpp, out, pos);
+            }
+
+            byte[] t = prev;
+            prev = cur;
+            cur = t;
+        }
+
+        return out;
+    }
+
+    private Strip deflate(byte[] raw, boolean last)
+    {
+        Deflater def = new Deflater(level, true);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 4);
+        byte[] buf = new byte[64 * 1024];
+
+        try
+        {
+            def.setInput(raw);
+            if (last)
+            {
+                def.finish();
+                while (!def.finished())
+                {
+                    out.write(buf, 0, def.deflate(buf));
+                }
+            }
+            else
+            {
+                int n;
+                do
+                {
+                    n = def.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
+                    out.write(buf, 0, n);
+                }
+                while (n == buf.length);
+            }
+        }
+        finally
+        {
+            def.end();
+        }
+
+        Adler32 adler = new Adler32();
+        adler.update(raw);
+
+        Strip s = new Strip();
+        s.data = out.toByteArray();
+        s.adler = adler.getValue();
+        s.length = raw.length;
+        return s;
+    }
+
+    /**
+     * Equivalent of zlib's {@code adler32_combine}.
+     */
+    private static long combineAdler(long adler1, long adler2, long len2)
+    {
+        final long base = 65521;
+
+        long rem = len2 % base;
+        long sum1 = adler1 & 0xFFFF;
+        long sum2 = (rem * sum1) % base;
+        sum1 += (adler2 & 0xFFFF) + base - 1;
+        sum2 += ((adler1 >> 16) & 0xFFFF) + ((adler2 >> 16) & 0xFFFF) + base - rem;
+
+        if (sum1 >= base) sum1 -= base;
+        if (sum1 >= base) sum1 -= base;
+        if (sum2 >= (base << 1)) sum2 -= (base << 1);
+        if (sum2 >= base) sum2 -= base;
+
+        return sum1 | (sum2 << 16);
+    }
+
+    private static void writeChunk(DataOutputStream out, String type, byte[]... parts)
+        throws IOException
+    {
+        int length = 0;
+        for (byte[] p : parts) length += p.length;
+
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+
+        out.writeInt(length);
+        out.write(typeBytes);
+        for (byte[] p : parts)
+        {
+            crc.update(p);
+            out.write(p);
+        }
+        out.writeInt((int) crc.getValue());
+    }
+
+    private byte[] zlibHeader()
+    {
+        // CMF is deflate with a 32K window, FLG only carries the level hint
+        // and the check bits.
+        int flevel = level == 1 ? 0 : level < 6 ? 1 : level == 6 ? 2 : 3;
+        int cmf = 0x78;
+        int flg = flevel << 6;
+        flg += 31 - ((cmf << 8) + flg) % 31;
+
+        return new byte[]{(byte) cmf, (byte) flg};
+    }
+
+    @Override
+    public String contentType()
+    {
+        return "image/png";
+    }
+
+    @Override
+    public String extension()
+    {
+        return "png";
+    }
+
+    @Override
+    public void write(BufferedImage img, OutputStream os) throws IOException
+    {
+        int w = img.getWidth();
+        int h = img.getHeight();
+
+        if (w == 0 || h == 0)
+        {
+            throw new IllegalArgumentException("Cannot encode an empty image");
+        }
+
+        Pixels px = Pixels.of(img);
+        Palette palette = indexed ? Palette.of(img, px) : null;
+        boolean opaque = palette != null || isOpaque(img, px);
+        int bpp = palette != null ? 1 : opaque ? 3 : 4;
+        int colorType = palette != null ? COLOR_TYPE_INDEXED
+            : opaque ? COLOR_TYPE_RGB : COLOR_TYPE_RGBA;
+
+        int rowBytes = w * bpp + 1;
+        int rowsPerStrip = Math.max(1, STRIP_BYTES / rowBytes);
+        int strips = (h + rowsPerStrip - 1) / rowsPerStrip;
+
+        List<CompletableFuture<Strip>> futures = new ArrayList<>(strips);
+        for (int i = 0; i < strips; i++)
+        {
+            int y0 = i * rowsPerStrip;
+            int y1 = Math.min(h, y0 + rowsPerStrip);
+            boolean last = i == strips - 1;
+
+            if (parallel && strips > 1)
+            {
+                futures.add(CompletableFuture.supplyAsync(
+                    () -> deflate(filterRows(img, px, palette, y0, y1, bpp), last),
+                    ForkJoinPool.commonPool()));
+            }
+            else
+            {
+                futures.add(CompletableFuture.completedFuture(
+                    deflate(filterRows(img, px, palette, y0, y1, bpp), last)));
+            }
+        }
+
+        DataOutputStream out = new DataOutputStream(os);
+        out.write(SIGNATURE);
+
+        Buffer ihdr = new Buffer()
+            .writeInt(w)
+            .writeInt(h)
+            .writeByte(8)
+            .writeByte(colorType)
+            .writeByte(0)
+            .writeByte(0)
+            .writeByte(0);
+        writeChunk(out, "IHDR", ihdr.readByteArray());
+
+        if (palette != null)
+        {
+            writeChunk(out, "PLTE", palette.plte());
+
+            byte[] trns = palette.trns();
+            if (trns != null) writeChunk(out, "tRNS", trns);
+        }
+
+        long adler = 1;
+        for (int i = 0; i < strips; i++)
+        {
+            Strip s;
+            try
+            {
+                s = futures.get(i).join();
+            }
+            catch (CompletionException e)
+            {
+                throw new IOException(e.getCause());
+            }
+
+            adler = combineAdler(adler, s.adler, s.length);
+
+            byte[] prefix = i == 0 ? zlibHeader() : new byte[0];
+            byte[] suffix = i == strips - 1
+                ? new Buffer().writeInt((int) adler).readByteArray()
+                : new byte[0];
+
+            writeChunk(out, "IDAT", prefix, s.data, suffix);
+        }
+
+        writeChunk(out, "IEND");
+        out.flush();
+    }
+}
@@ -0,0 +1,156 @@
+package org.agilityfc.util;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encoder for the lossless "Quite OK Image" format, see
+ * <https://qoiformat.org/qoi-specification.pdf>.
+ * <p>
+ * QOI encodes in a single pass without entropy coding, which makes it several
+ * times faster than PNG while staying small on flat UI graphics.
+ */
+public class QoiEncoder implements ImageEncoder
+{
+    private static final int OP_INDEX = 0x00;
+    private static final int OP_DIFF = 0x40;
+    private static final int OP_LUMA = 0x80;
+    private static final int OP_RUN = 0xC0;
+    private static final int OP_RGB = 0xFE;
+    private static final int OP_RGBA = 0xFF;
+
+    private static final int MAX_RUN = 62;
+
+    private static final byte[] END = {0, 0, 0, 0, 0, 0, 0, 1};
+
+    private static int hash(int argb)
+    {
+        int a = argb >>> 24;
+        int r = (argb >> 16) & 0xFF;
+        int g = (argb >> 8) & 0xFF;
+        int b = argb & 0xFF;
+
+        return (r * 3 + g * 5 + b * 7 + a * 11) & 63;
+    }
+
+    @Override
+    public String contentType()
+    {
+        return "image/qoi";
+    }
+
+    @Override
+    public String extension()
+    {
+        return "qoi";
+    }
+
+    @Override
+    public void write(BufferedImage img, OutputStream os) throws IOException
+    {
+        int w = img.getWidth();
+        int h = img.getHeight();
+        boolean alpha = img.getColorModel().hasAlpha();
+
+        DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(os, 64 * 1024));
+
+        out.writeBytes("qoif");
+        out.writeInt(w);
+        out.writeInt(h);
+        out.writeByte(alpha ? 4 : 3);
+        out.writeByte(0);
+
+        int[] index = new int[64];
+        int[] row = new int[w];
+        int prev = 0xFF000000;
+        int run = 0;
+
+        for (int y = 0; y < h; y++)
+        {
+            img.getRGB(0, y, w, 1, row, 0, w);
+
+            for (int x = 0; x < w; x++)
+            {
+                int px = alpha ? row[x] : row[x] | 0xFF000000;
+
+                if (px == prev)
+                {
+                    if (++run == MAX_RUN)
+                    {
+                        out.writeByte(OP_RUN | (run - 1));
+                        run = 0;
+                    }
+
+                    continue;
+                }
+
+                if (run > 0)
+                {
+                    out.writeByte(OP_RUN | (run - 1));
+                    run = 0;
+                }
+
+                int i = hash(px);
+                if (index[i] == px)
+                {
+                    out.writeByte(OP_INDEX | i);
+                    prev = px;
+                    continue;
+                }
+
+                index[i] = px;
+
+                if ((px >>> 24) == (prev >>> 24))
+                {
+                    int dr = (byte) ((px >> 16) - (prev >> 16));
+                    int dg = (byte) ((px >> 8) - (prev >> 8));
+                    int db = (byte) (px - prev);
+                    int drg = dr - dg;
+                    int dbg = db - dg;
+
+                    if (dr >= -2 && dr <= 1 && dg >= -2 && dg <= 1 &&
+                        db >= -2 && db <= 1)
+                    {
+                        out.writeByte(
+                            OP_DIFF | (dr + 2) << 4 | (dg + 2) << 2 | (db + 2));
+                    }
+                    else if (dg >= -32 && dg <= 31 &&
+                        drg >= -8 && drg <= 7 && dbg >= -8 && dbg <= 7)
+                    {
+                        out.writeByte(OP_LUMA | (dg + 32));
+                        out.writeByte((drg + 8) << 4 | (dbg + 8));
+                    }
+                    else
+                    {
+                        out.writeByte(OP_RGB);
+                        out.writeByte(px >> 16);
+                        out.writeByte(px >> 8);
+                        out.writeByte(px);
+                    }
+                }
+                else
+                {
+                    out.writeByte(OP_RGBA);
+                    out.writeByte(px >> 16);
+                    out.writeByte(px >> 8);
+                    out.writeByte(px);
+                    out.writeByte(px >>> 24);
+                }
+
+                prev = px;
+            }
+        }
+
+        if (run > 0)
+        {
+            out.writeByte(OP_RUN | (run - 1));
+        }
+
+        out.write(END);
+        out.flush();
+    }
+}
@@ -0,0 +1,270 @@
+package org.agilityfc;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+import org.agilityfc.util.ImageEncoder;
+import org.agilityfc.util.PngEncoder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives {@link ContentAddressedCall} against the {@link StandInServer}.
+ */
+public class ContentAddressedCallTest
+{
+    private final ImageEncoder encoder =
+        new PngEncoder(6, PngEncoder.Filter.PAETH, false);
+
+    private StandInServer server;
+    private OkHttpClient client;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        server = new StandInServer(0);
+        server.start();
+        client = new OkHttpClient.Builder()
+            .callTimeout(Duration.ofSeconds(5))
+            .build();
+    }
+
+    @After
+    public void tearDown()
+    {
+        server.stop();
+        client.dispatcher().executorService().shutdown();
+        client.connectionPool().evictAll();
+    }
+
+    private DonationInfo donation(String from, BufferedImage img)
+    {
+        return new DonationInfo(from, "Agility FC", 100, img);
+    }
+
+    private String blobPath(DonationInfo di) throws IOException
+    {
+        return "/blobs/" + DonationRequest.hash(di.encode(encoder).getData());
+    }
+
+    private Response send(DonationInfo di) throws IOException
+    {
+        return new ContentAddressedCall(client, server.getUrl(), di, encoder)
+            .execute();
+    }
+
+    @Test
+    public void uploadsNewScreenshotsBeforePostingByHash() throws IOException
+    {
+        DonationInfo di = donation("Zezima", SyntheticImages.create(64, 48));
+
+        try (Response r = send(di))
+        {
+            assertEquals(200, r.code());
+        }
+
+        String blob = blobPath(di);
+        assertEquals(List.of("HEAD " + blob, "PUT " + blob, "POST /"),
+            server.getRequests());
+        assertEquals(1, server.getUploads());
+        assertEquals(1, server.getDonations());
+    }
+
+    @Test
+    public void skipsUploadsOfKnownScreenshots() throws IOException
+    {
+        BufferedImage img = SyntheticImages.create(64, 48);
+        DonationInfo first = donation("Zezima", img);
+        DonationInfo second = donation("Lynx Titan", img);
+
+        send(first).close();
+        send(second).close();
+
+        String blob = blobPath(first);
+        assertEquals(List.of(
+                "HEAD " + blob, "PUT " + blob, "POST /",
+                "HEAD " + blob, "POST /"),
+            server.getRequests());
+        assertEquals(1, server.getUploads());
+        assertEquals(2, server.getDonations());
+    }
+
+    @Test
+    public void sendsOutboxEntriesAsEncoded() throws IOException
+    {
+        DonationInfo di = donation("Zezima", SyntheticImages.create(64, 48));
+        EncodedScreenshot.Encoding e = di.encode(encoder);
+        DonationOutbox.Entry entry = new DonationOutbox.Entry(
+            1, di.getKey(), 0, di.getFrom(), di.getTo(), di.getAmount(),
+            List.of(), e.getType(), e.getData(), null, null);
+
+        try (Response r = new ContentAddressedCall(
+            client, server.getUrl(), entry).execute())
+        {
+            assertEquals(200, r.code());
+        }
+
+        assertEquals(List.of(
+                "HEAD " + blobPath(di), "PUT " + blobPath(di), "POST /"),
+            server.getRequests());
+    }
+
+    /// Returns a client whose responses to {@code method} have {@code code}.
+    private OkHttpClient failing(String method, int code)
+    {
+        return client.newBuilder()
+            .addInterceptor(chain ->
+            {
+                Response r = chain.proceed(chain.request());
+                if (!chain.request().method().equals(method)) return r;
+
+                return r.newBuilder().code(code).build();
+            })
+            .build();
+    }
+
+    /**
+     * Sends a donation with {@code failing}, and checks that the call stops
+     * at the failed request and answers with its code. Each donation has a
+     * screenshot of its own, since the server keeps uploads whose responses
+     * were rewritten.
+     */
+    private void assertStopsWith(OkHttpClient failing, int code)
+        throws IOException
+    {
+        DonationInfo di = donation("Zezima", SyntheticImages.create(64, code));
+
+        try (Response r = new ContentAddressedCall(
+            failing, server.getUrl(), di, encoder).execute())
+        {
+            assertEquals(code, r.code());
+            assertEquals(code >= 500, DonationRequest.isRetryable(r.code()));
+        }
+
+        assertEquals(0, server.getDonations());
+    }
+
+    @Test
+    public void answersWithUnexpectedCheckResponses() throws IOException
+    {
+        // NOTE: The check only knows 200 and 404, anything else must not be
+        // taken for a missing screenshot.
+        assertStopsWith(failing("HEAD", 500), 500);
+        assertStopsWith(failing("HEAD", 401), 401);
+
+        assertEquals(0, server.getUploads());
+    }
+
+    @Test
+    public void answersWithFailedUploads() throws IOException
+    {
+        assertStopsWith(failing("PUT", 503), 503);
+        assertStopsWith(failing("PUT", 413), 413);
+    }
+
+    @Test
+    public void enqueuesEachRequest() throws InterruptedException
+    {
+        DonationInfo di = donation("Zezima", SyntheticImages.create(64, 48));
+        CountDownLatch called = new CountDownLatch(1);
+        int[] code = new int[1];
+
+        new ContentAddressedCall(client, server.getUrl(), di, encoder)
+            .enqueue(new Callback()
+            {
+                @Override
+                public void onFailure(Call call, IOException e)
+                {
+                    called.countDown();
+                }
+
+                @Override
+                public void onResponse(Call call, Response r)
+                {
+                    code[0] = r.code();
+                    called.countDown();
+                }
+            });
+
+        assertTrue(called.await(5, TimeUnit.SECONDS));
+        assertEquals(200, code[0]);
+        assertEquals(3, server.getRequests().size());
+        assertEquals(1, server.getDonations());
+    }
+
+    @Test
+    public void failsOnRejectedDonations() throws IOException
+    {
+        DonationInfo di = new DonationInfo("Zezima", "Agility FC", 100,
+            List.of(new DonationInfo.Item(995, 99, 1)),
+            SyntheticImages.create(64, 48));
+
+        try (Response r = send(di))
+        {
+            assertEquals(400, r.code());
+        }
+
+        assertEquals(0, server.getDonations());
+    }
+
+    @Test
+    public void closesTheResponseIfTheCallbackThrows()
+        throws InterruptedException
+    {
+        CountDownLatch called = new CountDownLatch(1);
+
+        new ContentAddressedCall(client, server.getUrl(),
+            donation("Zezima", SyntheticImages.create(64, 48)), encoder)
+            .enqueue(new Callback()
+            {
+                @Override
+                public void onFailure(Call call, IOException e)
+                {
+                    called.countDown();
+                }
+
+                @Override
+                public void onResponse(Call call, Response r)
+                {
+                    called.countDown();
+                    throw new IllegalStateException("Callback failed");
+                }
+            });
+
+        assertTrue(called.await(5, TimeUnit.SECONDS));
+        assertEquals(1, server.getDonations());
+
+        // NOTE: A leaked response would keep its connection out of the pool.
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (client.connectionPool().idleConnectionCount()
+            < client.connectionPool().connectionCount())
+        {
+            assertTrue("The response was not closed",
+                System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void boundsTheWholeCall()
+    {
+        ContentAddressedCall call = new ContentAddressedCall(client,
+            server.getUrl(), donation("Zezima", SyntheticImages.create(8, 8)),
+            encoder);
+
+        assertEquals(TimeUnit.SECONDS.toNanos(15),
+            call.timeout().timeoutNanos());
+    }
+}
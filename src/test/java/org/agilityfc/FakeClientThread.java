@@ -0,0 +1,67 @@
+package org.agilityfc;
+
+import net.runelite.client.callback.ClientThread;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Stand-in for the client thread: a single thread that runs whatever is
+ * invoked on it, right away rather than once per client tick.
+ */
+public class FakeClientThread extends ClientThread
+{
+    private final ExecutorService executor;
+    private volatile Thread thread;
+
+    public FakeClientThread()
+    {
+        executor = Executors.newSingleThreadExecutor(r ->
+        {
+            Thread t = new Thread(r, "Fake client thread");
+            t.setDaemon(true);
+            thread = t;
+            return t;
+        });
+    }
+
+    public boolean isClientThread()
+    {
+        return Thread.currentThread() == thread;
+    }
+
+    public void shutdown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Override
+    public void invoke(Runnable r)
+    {
+        // Like the real one, run right away when already on the thread.
+        if (isClientThread()) r.run();
+        else executor.execute(r);
+    }
+
+    @Override
+    public void invokeLater(Runnable r)
+    {
+        executor.execute(r);
+    }
+
+    @Override
+    public void invoke(BooleanSupplier r)
+    {
+        invoke(() -> invokeLater(r));
+    }
+
+    @Override
+    public void invokeLater(BooleanSupplier r)
+    {
+        executor.execute(() ->
+        {
+            if (!r.getAsBoolean()) invokeLater(r);
+        });
+    }
+}
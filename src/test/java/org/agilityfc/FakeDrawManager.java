@@ -0,0 +1,100 @@
+package org.agilityfc;
+
+import net.runelite.client.ui.DrawManager;
+
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Stand-in for the draw manager, which "draws" a synthetic frame on the
+ * fake client thread, either as soon as one is requested or at a fixed
+ * frame rate.
+ * <p>
+ * Every frame stamps a counter into the donation interface, so that no two
+ * screenshots are alike.
+ */
+public class FakeDrawManager extends DrawManager
+{
+    private final FakeClientThread clientThread;
+    private final BufferedImage frame;
+    private final Rectangle stamp;
+    private final List<Consumer<Image>> listeners = new ArrayList<>();
+    private final ScheduledExecutorService ticker;
+    private long frames;
+
+    /**
+     * @param fps the frame rate, or 0 to draw a frame whenever one is
+     * requested.
+     */
+    public FakeDrawManager(FakeClientThread clientThread, Rectangle bounds, int fps)
+    {
+        this.clientThread = clientThread;
+
+        frame = SyntheticImages.create(SyntheticImages.Size.FRAME);
+        BufferedImage ui = SyntheticImages.create(bounds.width, bounds.height);
+        frame.getGraphics().drawImage(ui, bounds.x, bounds.y, null);
+        stamp = new Rectangle(bounds.x + 8, bounds.y + 8, Long.SIZE, 1);
+
+        if (fps > 0)
+        {
+            ticker = Executors.newSingleThreadScheduledExecutor(r ->
+            {
+                Thread t = new Thread(r, "Fake frame ticker");
+                t.setDaemon(true);
+                return t;
+            });
+
+            ticker.scheduleAtFixedRate(
+                () -> clientThread.invokeLater(this::draw),
+                0, 1_000_000 / fps, TimeUnit.MICROSECONDS);
+        }
+        else
+        {
+            ticker = null;
+        }
+    }
+
+    public void shutdown()
+    {
+        if (ticker != null) ticker.shutdownNow();
+    }
+
+    @Override
+    public void requestNextFrameListener(Consumer<Image> listener)
+    {
+        synchronized (listeners)
+        {
+            listeners.add(listener);
+        }
+
+        if (ticker == null) clientThread.invokeLater(this::draw);
+    }
+
+    private void draw()
+    {
+        List<Consumer<Image>> ls;
+        synchronized (listeners)
+        {
+            if (listeners.isEmpty()) return;
+
+            ls = new ArrayList<>(listeners);
+            listeners.clear();
+        }
+
+        long n = frames++;
+        for (int i = 0; i < stamp.width; i++)
+        {
+            boolean bit = (n >>> i & 1) != 0;
+            frame.setRGB(stamp.x + i, stamp.y, bit ? 0xFFFFFF : 0);
+        }
+
+        ls.forEach(l -> l.accept(frame));
+    }
+}
@@ -0,0 +1,441 @@
+package org.agilityfc;
+
+import com.google.gson.Gson;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import net.runelite.api.Client;
+import net.runelite.api.Item;
+import net.runelite.api.ItemContainer;
+import net.runelite.api.ItemID;
+import net.runelite.api.Player;
+import net.runelite.api.gameval.InterfaceID;
+import net.runelite.api.gameval.InventoryID;
+import net.runelite.api.widgets.Widget;
+import net.runelite.client.callback.ClientThread;
+import net.runelite.client.ui.DrawManager;
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+import org.agilityfc.util.Histogram;
+import org.agilityfc.util.ItemPrices;
+import org.agilityfc.util.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.Rectangle;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Headless end-to-end run of the plugin's scrape and send path, against a fake
+ * client and a {@link StandInServer}.
+ * <p>
+ * The fake client always has the trade screen open, with a new donor for
+ * every scrape and the same few items on offer, priced at fixed prices. Each
+ * cycle scrapes it and sends the donation the way the panel's send button
+ * does, and the run reports throughput, latency percentiles and the bytes
+ * allocated per cycle.
+ * <p>
+ * Arguments, all optional:
+ * {@code cycles concurrency fps latencyMs blobs deferred}. An fps of 0 draws
+ * a frame as soon as one is requested. If {@code deferred}, sends only wait
+ * for the donation to be acknowledged, and the screenshot upload that
+ * follows is timed separately.
+ */
+public class LoadHarness
+{
+    private static final Logger log = LoggerFactory.getLogger(LoadHarness.class);
+
+    private static final Rectangle BOUNDS = new Rectangle(
+        16, 16, SyntheticImages.Size.TRADE.width, SyntheticImages.Size.TRADE.height);
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    private static final Item[] OFFER = {
+        new Item(ItemID.COINS_995, 1_234_567),
+        new Item(4151, 1),
+        new Item(-1, 0),
+        new Item(11840, 2),
+    };
+
+    private final int cycles;
+    private final int concurrency;
+
+    private final StandInServer server;
+    private final FakeClientThread clientThread = new FakeClientThread();
+    private final FakeDrawManager drawManager;
+    private final ScheduledExecutorService executor =
+        Executors.newSingleThreadScheduledExecutor();
+
+    private final AgilityFcPlugin plugin;
+    private final DonationScraper scraper;
+    private final Metrics metrics;
+    private final OkHttpClient httpClient = new OkHttpClient();
+
+    private final AtomicInteger donor = new AtomicInteger();
+    private final AtomicInteger errors = new AtomicInteger();
+    private final Histogram scrapeTimes = new Histogram();
+    private final Histogram sendTimes = new Histogram();
+    private final Histogram uploadTimes = new Histogram();
+    private final Histogram cycleTimes = new Histogram();
+
+    LoadHarness(
+        int cycles, int concurrency, int fps, boolean deferred,
+        StandInServer server)
+    {
+        this.cycles = cycles;
+        this.concurrency = concurrency;
+        this.server = server;
+        drawManager = new FakeDrawManager(clientThread, BOUNDS, fps);
+
+        AgilityFcConfig config = new AgilityFcConfig()
+        {
+            @Override
+            public String url()
+            {
+                return server.getUrl();
+            }
+
+            @Override
+            public String key()
+            {
+                return "load-harness";
+            }
+
+            @Override
+            public boolean deferredUpload()
+            {
+                return deferred;
+            }
+        };
+
+        Injector injector = Guice.createInjector(new AbstractModule()
+        {
+            @Override
+            protected void configure()
+            {
+                bind(Client.class).toInstance(fakeClient());
+                bind(ClientThread.class).toInstance(clientThread);
+                bind(DrawManager.class).toInstance(drawManager);
+                bind(AgilityFcConfig.class).toInstance(config);
+                bind(OkHttpClient.class).toInstance(httpClient);
+                bind(Gson.class).toInstance(new Gson());
+                bind(ScheduledExecutorService.class).toInstance(executor);
+                bind(ItemPrices.class).toInstance(fakePrices());
+            }
+        });
+
+        plugin = injector.getInstance(AgilityFcPlugin.class);
+        scraper = injector.getInstance(DonationScraper.class);
+        metrics = injector.getInstance(Metrics.class);
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        int cycles = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int fps = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+        long latencyMs = args.length > 3 ? Long.parseLong(args[3]) : 0;
+        boolean blobs = args.length <= 4 || Boolean.parseBoolean(args[4]);
+        boolean deferred = args.length > 5 && Boolean.parseBoolean(args[5]);
+
+        StandInServer server = new StandInServer(0);
+        server.setLatencyMs(latencyMs);
+        server.setBlobsEnabled(blobs);
+        server.start();
+
+        try
+        {
+            new LoadHarness(cycles, concurrency, fps, deferred, server).run();
+        }
+        finally
+        {
+            server.stop();
+        }
+    }
+
+    private static <T> T proxy(Class<T> c, Map<String, Object> values)
+    {
+        Object p = Proxy.newProxyInstance(
+            c.getClassLoader(), new Class<?>[]{c}, (self, m, args) ->
+            {
+                if (values.containsKey(m.getName())) return values.get(m.getName());
+                if (m.getName().equals("toString")) return c.getSimpleName();
+                return absent(m.getReturnType());
+            });
+
+        return c.cast(p);
+    }
+
+    /**
+     * Returns what a fake returns for anything it does not fake: false, zero
+     * or null.
+     */
+    private static Object absent(Class<?> type)
+    {
+        if (type == boolean.class) return false;
+        if (type == int.class) return 0;
+        if (type == long.class) return 0L;
+        return null;
+    }
+
+    /**
+     * Prices that need no item manager: coins are worth 1, anything else
+     * 1000.
+     */
+    private static ItemPrices fakePrices()
+    {
+        return new ItemPrices(null)
+        {
+            @Override
+            public int canonicalize(int id)
+            {
+                return id;
+            }
+
+            @Override
+            public long price(int id)
+            {
+                return id == ItemID.COINS_995 ? 1 : 1000;
+            }
+        };
+    }
+
+    private Widget widget(int id, String text)
+    {
+        return proxy(Widget.class, Map.of(
+            "getId", id, "getText", text, "isHidden", false, "getBounds", BOUNDS));
+    }
+
+    /**
+     * A client that has the trade screen open, and shows a different donor
+     * every time the title is read.
+     */
+    private Client fakeClient()
+    {
+        Player player = proxy(Player.class, Map.of("getName", "Agility FC"));
+        Widget universe = widget(InterfaceID.Trademain.UNIVERSE, "");
+        Widget value = widget(InterfaceID.Trademain.OTHER_OFFER_HEADER,
+            "Value: 1,237,567 coins");
+        ItemContainer offer = proxy(ItemContainer.class, Map.of(
+            "getId", InventoryID.TRADEOFFER | 0x8000, "getItems", OFFER));
+
+        return (Client) Proxy.newProxyInstance(
+            Client.class.getClassLoader(), new Class<?>[]{Client.class},
+            (self, m, args) ->
+            {
+                switch (m.getName())
+                {
+                    case "isClientThread":
+                        return clientThread.isClientThread();
+                    case "getLocalPlayer":
+                        return player;
+                    case "getWidget":
+                        if (args.length != 1) return null;
+
+                        int id = (Integer) args[0];
+                        if (id == InterfaceID.Trademain.UNIVERSE) return universe;
+                        if (id == InterfaceID.Trademain.OTHER_OFFER_HEADER) return value;
+                        if (id == InterfaceID.Trademain.TITLE)
+                        {
+                            return widget(id,
+                                "Trading with: Donor" + donor.incrementAndGet() % 10_000);
+                        }
+
+                        return null;
+                    case "getItemContainer":
+                        return (Integer) args[0] == (InventoryID.TRADEOFFER | 0x8000)
+                            ? offer : null;
+                    case "toString":
+                        return "Fake client";
+                    default:
+                        return absent(m.getReturnType());
+                }
+            });
+    }
+
+    /**
+     * Scrapes and sends one donation, like the panel's scrape and send
+     * buttons.
+     */
+    private void cycle() throws Exception
+    {
+        long start = System.nanoTime();
+
+        DonationInfo di = scraper.scrapeDonationAsync(TIMEOUT).get();
+        if (di == null) throw new IllegalStateException("Nothing was scraped");
+        if (di.getFrom() == null) di = di.withFrom("Donor");
+
+        long sent = System.nanoTime();
+        scrapeTimes.record((sent - start) / 1000);
+
+        boolean deferred = plugin.isDeferred();
+        String serverId = null;
+
+        try (Response r = deferred
+            ? plugin.makeMetadataCall(di).execute()
+            : plugin.makeCall(di).execute())
+        {
+            if (!r.isSuccessful())
+            {
+                throw new RuntimeException(
+                    String.format("Unexpected response: %s, \"%s\"",
+                        r.code(), r.body().string()));
+            }
+
+            if (deferred) serverId = plugin.donationId(r);
+        }
+
+        long end = System.nanoTime();
+        sendTimes.record((end - sent) / 1000);
+        cycleTimes.record((end - start) / 1000);
+
+        if (serverId != null) upload(di, serverId);
+    }
+
+    /**
+     * Uploads the screenshot of an acknowledged donation, like the outbox.
+     */
+    private void upload(DonationInfo di, String serverId) throws Exception
+    {
+        long start = System.nanoTime();
+        EncodedScreenshot.Encoding e = di.encode(plugin.getEncoder());
+
+        try (Response r = httpClient.newCall(DonationRequest.screenshotUpload(
+            serverId, e.getData(), e.getType(), server.getUrl())).execute())
+        {
+            if (!r.isSuccessful())
+            {
+                throw new RuntimeException("Unexpected response: " + r.code());
+            }
+        }
+
+        uploadTimes.record((System.nanoTime() - start) / 1000);
+    }
+
+    private void loop(int n)
+    {
+        for (int i = 0; i < n; i++)
+        {
+            try
+            {
+                cycle();
+            }
+            catch (Exception e)
+            {
+                // NOTE: Only the first error is logged, the rest are counted.
+                if (errors.getAndIncrement() == 0) log.error("Cycle failed", e);
+            }
+        }
+    }
+
+    /**
+     * Runs {@code cycles} cycles on {@code concurrency} threads.
+     *
+     * @return the bytes allocated by all threads meanwhile.
+     */
+    private long runCycles(int cycles) throws Exception
+    {
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+        long allocated = allocatedBytes();
+
+        try
+        {
+            List<Future<?>> fs = new ArrayList<>();
+            for (int i = 0; i < concurrency; i++)
+            {
+                int n = cycles / concurrency + (i < cycles % concurrency ? 1 : 0);
+                fs.add(workers.submit(() -> loop(n)));
+            }
+
+            for (Future<?> f : fs)
+            {
+                f.get();
+            }
+        }
+        finally
+        {
+            workers.shutdown();
+        }
+
+        return allocatedBytes() - allocated;
+    }
+
+    /**
+     * Returns the bytes allocated so far by all live threads, or 0 if the JVM
+     * does not keep count.
+     */
+    private static long allocatedBytes()
+    {
+        java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        if (!(mx instanceof com.sun.management.ThreadMXBean)) return 0;
+
+        com.sun.management.ThreadMXBean smx = (com.sun.management.ThreadMXBean) mx;
+        if (!smx.isThreadAllocatedMemoryEnabled()) return 0;
+
+        long sum = 0;
+        for (long b : smx.getThreadAllocatedBytes(mx.getAllThreadIds()))
+        {
+            if (b > 0) sum += b;
+        }
+
+        return sum;
+    }
+
+    private static String percentiles(Histogram h)
+    {
+        return String.format("p50 %7.2f  p95 %7.2f  p99 %7.2f  max %7.2f ms",
+            h.percentile(0.50) / 1000.0, h.percentile(0.95) / 1000.0,
+            h.percentile(0.99) / 1000.0, h.getMax() / 1000.0);
+    }
+
+    void run() throws Exception
+    {
+        plugin.startService();
+
+        // Warm up, then start counting afresh.
+        runCycles(Math.min(cycles, 200));
+        errors.set(0);
+        scrapeTimes.reset();
+        sendTimes.reset();
+        uploadTimes.reset();
+        cycleTimes.reset();
+        metrics.reset();
+        int donations = server.getDonations();
+        int uploads = server.getUploads();
+        long bytes = server.getBytesReceived();
+
+        long start = System.nanoTime();
+        long allocated = runCycles(cycles);
+        double secs = (System.nanoTime() - start) / 1e9;
+
+        clientThread.shutdown();
+        drawManager.shutdown();
+        executor.shutdownNow();
+
+        System.out.printf("%d cycles on %d threads in %.2f s: %.1f cycles/s, %d errors%n",
+            cycles, concurrency, secs, cycles / secs, errors.get());
+        System.out.println("Scrape " + percentiles(scrapeTimes));
+        System.out.println("Send   " + percentiles(sendTimes));
+        System.out.println("Cycle  " + percentiles(cycleTimes));
+        if (uploadTimes.getCount() > 0)
+        {
+            System.out.println("Upload " + percentiles(uploadTimes));
+        }
+        System.out.printf("Allocated %.1f KiB per cycle%n",
+            allocated / 1024.0 / cycles);
+        System.out.printf("Server: %d donations, %d uploads, %.1f KiB received%n",
+            server.getDonations() - donations, server.getUploads() - uploads,
+            (server.getBytesReceived() - bytes) / 1024.0);
+        System.out.println();
+        System.out.println(metrics.report());
+    }
+}
@@ -0,0 +1,371 @@
+package org.agilityfc;
+
+import com.google.common.hash.Hashing;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Local stand-in for the donation service, for trying the plugin without the
+ * real one. Point the plugin's URL at {@code http://localhost:<port>/}.
+ * <p>
+ * Implements the formats and batch endpoints, as well as uploads by hash and
+ * donations acknowledged ahead of their screenshots. It checks that
+ * itemised donations add up to their amount, and keeps count of the requests
+ * and bytes it received.
+ */
+public class StandInServer
+{
+    private static final Pattern FIELD = Pattern.compile(
+        "name=\"([^\"]+)\"(?:; filename=\"[^\"]*\")?\r\n(?:[^\r\n]+\r\n)*\r\n");
+
+    private static final Logger log = LoggerFactory.getLogger(StandInServer.class);
+
+    private static final Gson GSON = new Gson();
+
+    private final HttpServer server;
+    private final Map<String, byte[]> blobs = new ConcurrentHashMap<>();
+
+    /// Whether the screenshot of each acknowledged donation was uploaded, by
+    /// donation id.
+    private final Map<String, Boolean> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    private final AtomicInteger donations = new AtomicInteger();
+    private final AtomicInteger uploads = new AtomicInteger();
+    private final AtomicLong bytesReceived = new AtomicLong();
+
+    /// Method and path of every request, in the order they arrived.
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+
+    private volatile boolean blobsEnabled = true;
+    private volatile boolean deferredEnabled = true;
+    private volatile long latencyMs;
+
+    public StandInServer(int port) throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", this::handle);
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        StandInServer s = new StandInServer(port);
+        s.start();
+
+        System.out.println("Listening on " + s.getUrl());
+    }
+
+    public void start()
+    {
+        server.start();
+    }
+
+    public void stop()
+    {
+        server.stop(0);
+    }
+
+    public String getUrl()
+    {
+        return "http://localhost:" + server.getAddress().getPort() + "/";
+    }
+
+    /**
+     * Sets whether uploads by hash are announced to the plugin.
+     */
+    public void setBlobsEnabled(boolean enabled)
+    {
+        blobsEnabled = enabled;
+    }
+
+    /**
+     * Sets whether donations ahead of their screenshots are announced to the
+     * plugin.
+     */
+    public void setDeferredEnabled(boolean enabled)
+    {
+        deferredEnabled = enabled;
+    }
+
+    /**
+     * Sets a delay added to every response, to stand in for a remote service.
+     */
+    public void setLatencyMs(long latencyMs)
+    {
+        this.latencyMs = latencyMs;
+    }
+
+    public int getDonations()
+    {
+        return donations.get();
+    }
+
+    public int getUploads()
+    {
+        return uploads.get();
+    }
+
+    public long getBytesReceived()
+    {
+        return bytesReceived.get();
+    }
+
+    /**
+     * Returns the method and path of every request so far, e.g.
+     * {@code "HEAD /blobs/<hash>"}.
+     */
+    public List<String> getRequests()
+    {
+        return new ArrayList<>(requests);
+    }
+
+    private void handle(HttpExchange ex) throws IOException
+    {
+        try
+        {
+            byte[] body = ex.getRequestBody().readAllBytes();
+            bytesReceived.addAndGet(body.length);
+
+            if (latencyMs > 0) Thread.sleep(latencyMs);
+
+            String method = ex.getRequestMethod();
+            requests.add(method + " " + ex.getRequestURI().getPath());
+            String[] path = ex.getRequestURI().getPath().split("/");
+            String last = path.length > 0 ? path[path.length - 1] : "";
+
+            if (path.length >= 2 && path[path.length - 2].equals("blobs"))
+            {
+                handleBlob(ex, method, last, body);
+            }
+            else if (last.equals("formats"))
+            {
+                respond(ex, 200, "{\"formats\": [\"image/png\", \"image/qoi\"], \"blobs\": " + blobsEnabled + ", \"deferred\": " + deferredEnabled + "}");
+            }
+            else if (last.equals("donations") && method.equals("POST"))
+            {
+                handleMetadata(ex, body);
+            }
+            else if (path.length >= 3 && path[path.length - 3].equals("donations") &&
+                last.equals("screenshot") && method.equals("PUT"))
+            {
+                handleScreenshot(ex, path[path.length - 2], body);
+            }
+            else if (last.equals("batch") && method.equals("POST"))
+            {
+                handleBatch(ex, body);
+            }
+            else if (method.equals("POST"))
+            {
+                handleDonation(ex, body);
+            }
+            else
+            {
+                respond(ex, 404, "Not found");
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            ex.close();
+        }
+    }
+
+    private void handleBlob(HttpExchange ex, String method, String hash, byte[] body)
+        throws IOException
+    {
+        if (method.equals("HEAD"))
+        {
+            ex.sendResponseHeaders(blobs.containsKey(hash) ? 200 : 404, -1);
+        }
+        else if (method.equals("PUT"))
+        {
+            if (!Hashing.sha256().hashBytes(body).toString().equals(hash))
+            {
+                respond(ex, 400, "Hash mismatch");
+                return;
+            }
+
+            blobs.put(hash, body);
+            uploads.incrementAndGet();
+            respond(ex, 201, "");
+        }
+        else
+        {
+            respond(ex, 405, "Method not allowed");
+        }
+    }
+
+    private void handleDonation(HttpExchange ex, byte[] body) throws IOException
+    {
+        Map<String, String> fields = fields(body);
+
+        String hash = fields.get("screenshot_hash");
+        if (hash != null && !blobs.containsKey(hash))
+        {
+            respond(ex, 400, "Unknown screenshot " + hash);
+            return;
+        }
+
+        if (hash == null && !fields.containsKey("screenshot"))
+        {
+            respond(ex, 400, "Missing screenshot");
+            return;
+        }
+
+        if (!addsUp(fields))
+        {
+            respond(ex, 400, "Items do not add up to the amount");
+            return;
+        }
+
+        donations.incrementAndGet();
+        log.debug("Donation from {} to {}: {}",
+            fields.get("from"), fields.get("to"), fields.get("amount"));
+        respond(ex, 200, "OK");
+    }
+
+    private void handleMetadata(HttpExchange ex, byte[] body) throws IOException
+    {
+        Map<String, String> fields = fields(body);
+
+        if (!addsUp(fields))
+        {
+            respond(ex, 400, "Items do not add up to the amount");
+            return;
+        }
+
+        String id = Integer.toString(nextId.incrementAndGet());
+        pending.put(id, false);
+        donations.incrementAndGet();
+        log.debug("Donation {} from {} to {}: {}",
+            id, fields.get("from"), fields.get("to"), fields.get("amount"));
+        respond(ex, 200, "{\"id\": \"" + id + "\"}");
+    }
+
+    private void handleScreenshot(HttpExchange ex, String id, byte[] body)
+        throws IOException
+    {
+        if (!pending.containsKey(id))
+        {
+            respond(ex, 404, "Unknown donation " + id);
+            return;
+        }
+
+        if (body.length == 0)
+        {
+            respond(ex, 400, "Missing screenshot");
+            return;
+        }
+
+        pending.put(id, true);
+        uploads.incrementAndGet();
+        respond(ex, 201, "");
+    }
+
+    private void handleBatch(HttpExchange ex, byte[] body) throws IOException
+    {
+        Map<String, String> fields = fields(body);
+        int count = Integer.parseInt(fields.getOrDefault("count", "0"));
+        StringBuilder sb = new StringBuilder("{\"results\": [");
+
+        for (int i = 0; i < count; i++)
+        {
+            String items = fields.get("items[" + i + "]");
+            boolean ok = items == null
+                || total(items) == Long.parseLong(fields.get("amount[" + i + "]"));
+
+            if (i > 0) sb.append(", ");
+            sb.append("{\"index\": ").append(i).append(", \"ok\": ").append(ok);
+            if (!ok) sb.append(", \"error\": \"Items do not add up\"");
+            sb.append('}');
+
+            if (ok) donations.incrementAndGet();
+        }
+
+        respond(ex, 200, sb.append("]}").toString());
+    }
+
+    /**
+     * Returns whether a donation's items, if it lists any, add up to its
+     * amount.
+     */
+    private static boolean addsUp(Map<String, String> fields)
+    {
+        String items = fields.get("items");
+        return items == null || total(items) == Long.parseLong(fields.get("amount"));
+    }
+
+    /**
+     * Returns the value of the items in a donation's {@code items} field.
+     */
+    private static long total(String items)
+    {
+        long total = 0;
+        for (JsonElement e : GSON.fromJson(items, JsonArray.class))
+        {
+            JsonObject o = e.getAsJsonObject();
+            total += o.get("quantity").getAsLong() * o.get("price").getAsLong();
+        }
+
+        return total;
+    }
+
+    /**
+     * Picks the fields out of a multipart body. Binary parts are decoded as
+     * Latin-1, which keeps their length but not their meaning.
+     */
+    private static Map<String, String> fields(byte[] body)
+    {
+        String s = new String(body, StandardCharsets.ISO_8859_1);
+        Map<String, String> r = new HashMap<>();
+
+        Matcher m = FIELD.matcher(s);
+        while (m.find())
+        {
+            int end = s.indexOf("\r\n--", m.end());
+            if (end < 0) break;
+            r.put(m.group(1), s.substring(m.end(), end));
+        }
+
+        return r;
+    }
+
+    private static void respond(HttpExchange ex, int code, String body)
+        throws IOException
+    {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        ex.sendResponseHeaders(code, bytes.length == 0 ? -1 : bytes.length);
+
+        try (OutputStream out = ex.getResponseBody())
+        {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package org.agilityfc;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+/**
+ * Deterministic stand-ins for screenshots of donation interfaces: a flat
+ * stone background with borders, item icons and lines of text, which is what
+ * the encoders and scalers see in practice.
+ */
+public final class SyntheticImages
+{
+    /// Sizes of the donation interfaces at the fixed client layout.
+    public enum Size
+    {
+        TRADE(488, 326),
+        PRICE_CHECK(484, 300),
+        LOOTING_BAG(190, 261),
+        FRAME(765, 503);
+
+        final int width;
+        final int height;
+
+        Size(int width, int height)
+        {
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    private static final Color STONE = new Color(62, 53, 41);
+    private static final Color BORDER = new Color(42, 35, 25);
+    private static final Color[] TEXT = {
+        new Color(255, 152, 31), Color.WHITE, Color.YELLOW, new Color(0, 255, 0),
+    };
+
+    private SyntheticImages()
+    {
+    }
+
+    public static BufferedImage create(Size size)
+    {
+        return create(size.width, size.height);
+    }
+
+    public static BufferedImage create(int width, int height)
+    {
+        Random random = new Random(width * 31L + height);
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+
+        g.setColor(STONE);
+        g.fillRect(0, 0, width, height);
+        g.setColor(BORDER);
+        g.drawRect(2, 2, width - 5, height - 5);
+        g.drawRect(5, 5, width - 11, height - 11);
+
+        // Item icons, a few shaded colours each.
+        for (int y = 40; y + 32 < height; y += 36)
+        {
+            for (int x = 16; x + 36 < width / 2; x += 42)
+            {
+                if (random.nextInt(3) == 0) continue;
+
+                Color c = new Color(random.nextInt(0xFFFFFF));
+                for (int i = 0; i < 4; i++)
+                {
+                    g.setColor(i % 2 == 0 ? c : c.darker());
+                    g.fillOval(x + 4 * i, y + 2 * i, 30 - 6 * i, 30 - 4 * i);
+                }
+            }
+        }
+
+        // Lines of text, as runs of single-colour glyph columns.
+        for (int y = 14; y < height - 10; y += 48)
+        {
+            g.setColor(TEXT[random.nextInt(TEXT.length)]);
+            int x = width / 2 + 10;
+
+            while (x < width - 20)
+            {
+                int w = 1 + random.nextInt(5);
+                g.fillRect(x, y + random.nextInt(3), w, 6 + random.nextInt(4));
+                x += w + 1 + random.nextInt(3);
+            }
+        }
+
+        g.dispose();
+        return img;
+    }
+}
@@ -0,0 +1,200 @@
+package org.agilityfc.util;
+
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Decodes the encoder's output with {@link ImageIO} and compares it pixel for
+ * pixel with the input.
+ */
+public class PngEncoderTest
+{
+    /// Offset of the colour type in the IHDR chunk, after the signature, the
+    /// chunk's length and type, the dimensions and the bit depth.
+    private static final int COLOR_TYPE_OFFSET = 25;
+
+    private static final int COLOR_TYPE_RGB = 2;
+    private static final int COLOR_TYPE_INDEXED = 3;
+    private static final int COLOR_TYPE_RGBA = 6;
+
+    private static int[] pixels(BufferedImage img)
+    {
+        int w = img.getWidth();
+        int h = img.getHeight();
+        return img.getRGB(0, 0, w, h, null, 0, w);
+    }
+
+    /**
+     * Encodes and decodes {@code img}, checks that the pixels survived and
+     * returns the colour type the encoder picked.
+     */
+    private static int roundTrip(PngEncoder encoder, BufferedImage img)
+        throws IOException
+    {
+        byte[] png = encoder.encode(img);
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(png));
+
+        assertNotNull("ImageIO could not decode the PNG", decoded);
+        assertEquals(img.getWidth(), decoded.getWidth());
+        assertEquals(img.getHeight(), decoded.getHeight());
+        assertArrayEquals(pixels(img), pixels(decoded));
+
+        return png[COLOR_TYPE_OFFSET];
+    }
+
+    /// Returns an image like a screenshot of an interface: a flat background
+    /// with a few shaded shapes on it.
+    private static BufferedImage screenshot(int w, int h)
+    {
+        Random random = new Random(w * 31L + h);
+        BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+
+        g.setColor(new Color(62, 53, 41));
+        g.fillRect(0, 0, w, h);
+
+        for (int i = 0; i < w * h / 2000 + 1; i++)
+        {
+            Color c = new Color(random.nextInt(0xFFFFFF));
+            int x = random.nextInt(w);
+            int y = random.nextInt(h);
+
+            g.setColor(c);
+            g.fillOval(x, y, 30, 30);
+            g.setColor(c.darker());
+            g.fillOval(x + 6, y + 4, 18, 22);
+        }
+
+        g.dispose();
+        return img;
+    }
+
+    /// Returns an image with {@code colors} random colours.
+    private static BufferedImage noise(int w, int h, int type, int colors)
+    {
+        Random random = new Random(w * 31L + h);
+        int[] palette = new int[colors];
+        for (int i = 0; i < colors; i++)
+        {
+            palette[i] = random.nextInt();
+        }
+
+        BufferedImage img = new BufferedImage(w, h, type);
+        for (int y = 0; y < h; y++)
+        {
+            for (int x = 0; x < w; x++)
+            {
+                img.setRGB(x, y, palette[random.nextInt(colors)]);
+            }
+        }
+
+        return img;
+    }
+
+    @Test
+    public void roundTripsEveryFilter() throws IOException
+    {
+        BufferedImage img = screenshot(190, 261);
+
+        for (PngEncoder.Filter f : PngEncoder.Filter.values())
+        {
+            assertEquals(COLOR_TYPE_RGB,
+                roundTrip(new PngEncoder(6, f, false), img));
+        }
+    }
+
+    @Test
+    public void roundTripsOddSizes() throws IOException
+    {
+        PngEncoder encoder = new PngEncoder(6, PngEncoder.Filter.ADAPTIVE, false);
+
+        roundTrip(encoder, noise(1, 1, BufferedImage.TYPE_INT_RGB, 1000));
+        roundTrip(encoder, noise(37, 23, BufferedImage.TYPE_INT_RGB, 1000));
+        roundTrip(encoder, noise(255, 3, BufferedImage.TYPE_INT_RGB, 1000));
+    }
+
+    @Test
+    public void roundTripsAlpha() throws IOException
+    {
+        BufferedImage img = noise(41, 17, BufferedImage.TYPE_INT_ARGB, 1000);
+
+        assertEquals(COLOR_TYPE_RGBA, roundTrip(
+            new PngEncoder(6, PngEncoder.Filter.PAETH, false), img));
+    }
+
+    @Test
+    public void writesOpaqueArgbAsRgb() throws IOException
+    {
+        BufferedImage img = new BufferedImage(
+            33, 9, BufferedImage.TYPE_INT_ARGB);
+        img.createGraphics().drawImage(
+            screenshot(33, 9), 0, 0, null);
+
+        assertEquals(COLOR_TYPE_RGB, roundTrip(
+            new PngEncoder(6, PngEncoder.Filter.SUB, false), img));
+    }
+
+    @Test
+    public void roundTripsIndexed() throws IOException
+    {
+        PngEncoder encoder = new PngEncoder(
+            6, PngEncoder.Filter.ADAPTIVE, false, true);
+
+        assertEquals(COLOR_TYPE_INDEXED,
+            roundTrip(encoder, noise(37, 23, BufferedImage.TYPE_INT_RGB, 256)));
+        assertEquals(COLOR_TYPE_INDEXED,
+            roundTrip(encoder, noise(37, 23, BufferedImage.TYPE_INT_ARGB, 200)));
+        assertEquals(COLOR_TYPE_INDEXED,
+            roundTrip(encoder, noise(37, 23, BufferedImage.TYPE_3BYTE_BGR, 5)));
+    }
+
+    @Test
+    public void fallsBackFromIndexedWithManyColors() throws IOException
+    {
+        PngEncoder encoder = new PngEncoder(
+            6, PngEncoder.Filter.ADAPTIVE, false, true);
+
+        assertEquals(COLOR_TYPE_RGB,
+            roundTrip(encoder, noise(64, 64, BufferedImage.TYPE_INT_RGB, 1000)));
+        assertEquals(COLOR_TYPE_RGBA,
+            roundTrip(encoder, noise(37, 23, BufferedImage.TYPE_INT_ARGB, 1000)));
+    }
+
+    @Test
+    public void roundTripsMultipleStrips() throws IOException
+    {
+        // NOTE: A full frame is several strips, which are deflated in
+        // parallel and joined into one zlib stream.
+        BufferedImage img = screenshot(765, 503);
+        BufferedImage alpha = noise(765, 503, BufferedImage.TYPE_INT_ARGB, 300);
+
+        for (boolean parallel : new boolean[]{false, true})
+        {
+            roundTrip(new PngEncoder(1, PngEncoder.Filter.UP, parallel), img);
+            roundTrip(new PngEncoder(9, PngEncoder.Filter.ADAPTIVE, parallel), alpha);
+            roundTrip(new PngEncoder(6, PngEncoder.Filter.AVERAGE, parallel, true),
+                noise(765, 503, BufferedImage.TYPE_INT_RGB, 100));
+        }
+    }
+
+    @Test
+    public void roundTripsSubimages() throws IOException
+    {
+        BufferedImage img = screenshot(488, 326)
+            .getSubimage(13, 7, 101, 55);
+
+        roundTrip(new PngEncoder(6, PngEncoder.Filter.PAETH, false), img);
+        roundTrip(new PngEncoder(6, PngEncoder.Filter.NONE, false, true), img);
+    }
+}
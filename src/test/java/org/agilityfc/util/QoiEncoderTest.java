@@ -0,0 +1,230 @@
+package org.agilityfc.util;
+
+import org.junit.Test;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Decodes the encoder's output with a reference decoder written from the
+ * specification and compares it pixel for pixel with the input.
+ */
+public class QoiEncoderTest
+{
+    private static final byte[] END = {0, 0, 0, 0, 0, 0, 0, 1};
+
+    /// A decoded image: its channels and ARGB pixels.
+    private static class Decoded
+    {
+        int width;
+        int height;
+        int channels;
+        int[] pixels;
+    }
+
+    private static Decoded decode(byte[] qoi) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(qoi));
+
+        byte[] magic = new byte[4];
+        in.readFully(magic);
+        assertEquals("qoif", new String(magic, "US-ASCII"));
+
+        Decoded d = new Decoded();
+        d.width = in.readInt();
+        d.height = in.readInt();
+        d.channels = in.readUnsignedByte();
+        in.readUnsignedByte();
+        d.pixels = new int[d.width * d.height];
+
+        int[] index = new int[64];
+        int r = 0;
+        int g = 0;
+        int b = 0;
+        int a = 255;
+
+        for (int i = 0; i < d.pixels.length; )
+        {
+            int op = in.readUnsignedByte();
+            int run = 1;
+
+            if (op == 0xFE)
+            {
+                r = in.readUnsignedByte();
+                g = in.readUnsignedByte();
+                b = in.readUnsignedByte();
+            }
+            else if (op == 0xFF)
+            {
+                r = in.readUnsignedByte();
+                g = in.readUnsignedByte();
+                b = in.readUnsignedByte();
+                a = in.readUnsignedByte();
+            }
+            else if ((op & 0xC0) == 0x00)
+            {
+                int px = index[op];
+                a = px >>> 24;
+                r = (px >> 16) & 0xFF;
+                g = (px >> 8) & 0xFF;
+                b = px & 0xFF;
+            }
+            else if ((op & 0xC0) == 0x40)
+            {
+                r = (r + ((op >> 4) & 3) - 2) & 0xFF;
+                g = (g + ((op >> 2) & 3) - 2) & 0xFF;
+                b = (b + (op & 3) - 2) & 0xFF;
+            }
+            else if ((op & 0xC0) == 0x80)
+            {
+                int dg = (op & 0x3F) - 32;
+                int next = in.readUnsignedByte();
+                r = (r + dg + ((next >> 4) & 0xF) - 8) & 0xFF;
+                g = (g + dg) & 0xFF;
+                b = (b + dg + (next & 0xF) - 8) & 0xFF;
+            }
+            else
+            {
+                run = (op & 0x3F) + 1;
+            }
+
+            int px = a << 24 | r << 16 | g << 8 | b;
+            index[(r * 3 + g * 5 + b * 7 + a * 11) % 64] = px;
+
+            for (int j = 0; j < run; j++)
+            {
+                d.pixels[i++] = px;
+            }
+        }
+
+        byte[] end = new byte[END.length];
+        in.readFully(end);
+        assertArrayEquals(END, end);
+        assertEquals("Trailing bytes after the end marker", 0, in.available());
+
+        return d;
+    }
+
+    private static void roundTrip(BufferedImage img) throws IOException
+    {
+        Decoded d = decode(new QoiEncoder().encode(img));
+        int w = img.getWidth();
+        int h = img.getHeight();
+        boolean alpha = img.getColorModel().hasAlpha();
+
+        assertEquals(w, d.width);
+        assertEquals(h, d.height);
+        assertEquals(alpha ? 4 : 3, d.channels);
+        assertArrayEquals(img.getRGB(0, 0, w, h, null, 0, w), d.pixels);
+    }
+
+    /// Returns an image like a screenshot of an interface: a flat background
+    /// with a few shaded shapes on it.
+    private static BufferedImage screenshot(int w, int h)
+    {
+        Random random = new Random(w * 31L + h);
+        BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+
+        g.setColor(new Color(62, 53, 41));
+        g.fillRect(0, 0, w, h);
+
+        for (int i = 0; i < w * h / 2000 + 1; i++)
+        {
+            Color c = new Color(random.nextInt(0xFFFFFF));
+            int x = random.nextInt(w);
+            int y = random.nextInt(h);
+
+            g.setColor(c);
+            g.fillOval(x, y, 30, 30);
+            g.setColor(c.darker());
+            g.fillOval(x + 6, y + 4, 18, 22);
+        }
+
+        g.dispose();
+        return img;
+    }
+
+    /// Returns an image with {@code colors} random colours.
+    private static BufferedImage noise(int w, int h, int type, int colors)
+    {
+        Random random = new Random(w * 31L + h);
+        int[] palette = new int[colors];
+        for (int i = 0; i < colors; i++)
+        {
+            palette[i] = random.nextInt();
+        }
+
+        BufferedImage img = new BufferedImage(w, h, type);
+        for (int y = 0; y < h; y++)
+        {
+            for (int x = 0; x < w; x++)
+            {
+                img.setRGB(x, y, palette[random.nextInt(colors)]);
+            }
+        }
+
+        return img;
+    }
+
+    @Test
+    public void roundTripsScreenshots() throws IOException
+    {
+        roundTrip(screenshot(488, 326));
+        roundTrip(screenshot(190, 261));
+        roundTrip(screenshot(765, 503));
+    }
+
+    @Test
+    public void roundTripsOddSizes() throws IOException
+    {
+        roundTrip(noise(1, 1, BufferedImage.TYPE_INT_RGB, 1000));
+        roundTrip(noise(37, 23, BufferedImage.TYPE_INT_RGB, 1000));
+        roundTrip(screenshot(255, 3));
+    }
+
+    @Test
+    public void roundTripsAlpha() throws IOException
+    {
+        roundTrip(noise(41, 17, BufferedImage.TYPE_INT_ARGB, 1000));
+        roundTrip(noise(41, 17, BufferedImage.TYPE_INT_ARGB, 3));
+    }
+
+    @Test
+    public void roundTripsSmallSteps() throws IOException
+    {
+        // NOTE: Gradients exercise the diff and luma ops, which encode a
+        // pixel relative to the previous one.
+        BufferedImage img = new BufferedImage(
+            129, 67, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < img.getHeight(); y++)
+        {
+            for (int x = 0; x < img.getWidth(); x++)
+            {
+                img.setRGB(x, y, (x * 2) << 16 | (y * 3 + x) << 8 | (x ^ y));
+            }
+        }
+
+        roundTrip(img);
+    }
+
+    @Test
+    public void roundTripsLongRuns() throws IOException
+    {
+        // NOTE: Runs are capped at 62 pixels, and continue across rows.
+        BufferedImage img = new BufferedImage(
+            100, 5, BufferedImage.TYPE_INT_RGB);
+        img.setRGB(50, 2, 0x123456);
+
+        roundTrip(img);
+        roundTrip(new BufferedImage(62, 1, BufferedImage.TYPE_INT_ARGB));
+    }
+}